@@ -0,0 +1,23 @@
+function minErr(module, ErrorConstructor) {
+  ErrorConstructor = ErrorConstructor || Error;
+  return function () {
+    var code = arguments[0],
+      format = window['MINERR_FORMATTER_GLOBAL'],
+      queue = window['MINERR_FORMATTER_GLOBAL' + 'Queue'],
+      error,
+      script;
+    if (format) {
+      return new ErrorConstructor(format(module, arguments));
+    }
+    error = new ErrorConstructor('[' + (module ? module + ':' : '') + code + '] ' +
+      'MINERR_URL' + (module ? module + 'MINERR_SEPARATOR' : '') + code);
+    if (!queue) {
+      queue = window['MINERR_FORMATTER_GLOBAL' + 'Queue'] = [];
+      script = document.createElement('script');
+      script.src = 'MINERR_FORMATTER_URL';
+      document.getElementsByTagName('head')[0].appendChild(script);
+    }
+    queue.push([error, module, arguments]);
+    return error;
+  };
+}
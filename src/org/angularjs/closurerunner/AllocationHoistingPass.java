@@ -0,0 +1,281 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves function expressions that don't use any variable of the functions
+ * around them, and regular expression literals without the g or y flag, to
+ * the module scope, so that they are created once instead of on every call,
+ * e.g.
+ * (function () {
+ *   function minErr(module) {
+ *     var stringify = function (arg) { return arg.replace(/ \{[\s\S]*$/, ''); };
+ *     ...
+ *   }
+ * })();
+ * to
+ * (function () {
+ *   var regex = / \{[\s\S]*$/;
+ *   var stringify$0 = function (arg) { return arg.replace(regex, ''); };
+ *   function minErr(module) {
+ *     var stringify = stringify$0;
+ *     ...
+ *   }
+ * })();
+ *
+ * The module scope is the body of a top-level immediately invoked function,
+ * as in angular.js. Code outside of one is left alone, as the hoisted
+ * variables would become globals of the page. As hoisting makes every call
+ * share one function object, functions are only hoisted where they can't
+ * escape: local variables that are only ever called, and callbacks of
+ * methods like sort and replace that don't keep them. Identical regular
+ * expressions share one object.
+ */
+class AllocationHoistingPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Set<String> usedNames;
+  private Map<Node, Node> declarationScopes;
+  private Map<Scope.Var, List<Node>> references;
+  private Map<Node, Scope.Var> functionVars;
+  private List<Node> functions;
+  private List<Node> regexes;
+
+  // Methods that call a function argument without keeping it.
+  static final Set<String> NON_RETAINING_METHODS = new HashSet<String>(Arrays.asList(
+      "every", "filter", "forEach", "map", "reduce", "reduceRight", "replace", "some",
+      "sort"));
+
+  public AllocationHoistingPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  private String createUniqueName(String base) {
+    String name = base;
+    for (int i = 0; usedNames.contains(name); i++) {
+      name = base + "$" + i;
+    }
+    usedNames.add(name);
+    return name;
+  }
+
+  private static Node getEnclosingFunction(Node n) {
+    for (Node ancestor = n.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+      if (ancestor.isFunction()) {
+        return ancestor;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isTopLevelIife(Node function) {
+    Node call = function.getParent();
+    if (!call.isCall() || call.getFirstChild() != function) {
+      return false;
+    }
+    Node statement = call.getParent();
+    if (statement.getType() == Token.NOT) {
+      // !function () {...}();
+      statement = statement.getParent();
+    }
+    return statement.isExprResult() && statement.getParent().isScript();
+  }
+
+  /**
+   * Returns the function whose body is the module scope of a node, or null
+   * for the global scope.
+   */
+  private static Node getModuleFunction(Node n) {
+    Node outermost = null;
+    for (Node function = getEnclosingFunction(n); function != null;
+         function = getEnclosingFunction(function)) {
+      outermost = function;
+    }
+    return outermost != null && isTopLevelIife(outermost) ? outermost : null;
+  }
+
+  private static boolean isAncestor(Node ancestor, Node n) {
+    for (Node current = n; current != null; current = current.getParent()) {
+      if (current == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * True if a node is inside a function below its module scope, i.e.
+   * allocating it there happens more than once.
+   */
+  private static boolean isInInnerFunction(Node n) {
+    Node module = getModuleFunction(n);
+    return module != null && getEnclosingFunction(n) != module;
+  }
+
+  /**
+   * True if every variable a function uses is declared in it, in its module
+   * scope, or globally.
+   */
+  private boolean hasNoFreeVariables(Node function, Node module, Node ast) {
+    if (ast.isName() && declarationScopes.containsKey(ast)) {
+      Node scope = declarationScopes.get(ast);
+      if (scope != null && scope != module && !isAncestor(function, scope)) {
+        return false;
+      }
+    }
+    for (Node child : ast.children()) {
+      if (!hasNoFreeVariables(function, module, child)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * True if a function can't be seen outside of the call that creates it.
+   */
+  private boolean cannotEscape(Node function) {
+    Node parent = function.getParent();
+    if (parent.isName() && parent.getParent().isVar()) {
+      // var stringify = function (arg) {...};
+      Scope.Var var = functionVars.get(function);
+      if (var == null) {
+        return false;
+      }
+      for (Node reference : references.get(var)) {
+        if (reference != parent && (!reference.getParent().isCall()
+            || reference.getParent().getFirstChild() != reference)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (!parent.isCall() || parent.getFirstChild() == function) {
+      return false;
+    }
+    Node callee = parent.getFirstChild();
+    if (callee.isGetProp()) {
+      return NON_RETAINING_METHODS.contains(callee.getLastChild().getString());
+    }
+    return callee.isQualifiedName() && (callee.getQualifiedName().equals("forEach")
+        || callee.getQualifiedName().equals("angular.forEach"));
+  }
+
+  private static Node getModuleBody(Node n) {
+    return getModuleFunction(n).getLastChild();
+  }
+
+  /**
+   * Replaces a node with a reference to a variable declared at the start of
+   * the given module scope, and returns the variable's name.
+   */
+  private String hoist(Node n, String base, Node moduleBody) {
+    String name = createUniqueName(base);
+    n.getParent().replaceChild(n, IR.name(name).srcref(n));
+    moduleBody.addChildToFront(IR.var(IR.name(name), n).useSourceInfoIfMissingFromForTree(n));
+    return name;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    usedNames = new HashSet<String>();
+    declarationScopes = new HashMap<Node, Node>();
+    references = new HashMap<Scope.Var, List<Node>>();
+    functionVars = new HashMap<Node, Scope.Var>();
+    functions = new ArrayList<Node>();
+    regexes = new ArrayList<Node>();
+    NodeTraversal.traverse(compiler, root, this);
+
+    // Check all functions before anything moves.
+    List<Node> hoistedFunctions = new ArrayList<Node>();
+    for (Node function : functions) {
+      if (hasNoFreeVariables(function, getModuleFunction(function), function)
+          && cannotEscape(function)) {
+        hoistedFunctions.add(function);
+      }
+    }
+
+    // Regular expressions with the same source and flags share an object
+    // within a module scope.
+    Map<Node, Map<String, String>> regexNames = new HashMap<Node, Map<String, String>>();
+    for (Node regex : regexes) {
+      Node moduleBody = getModuleBody(regex);
+      if (!regexNames.containsKey(moduleBody)) {
+        regexNames.put(moduleBody, new HashMap<String, String>());
+      }
+      Map<String, String> names = regexNames.get(moduleBody);
+      String key = regex.getFirstChild().getString() + "/"
+          + (regex.getChildCount() > 1 ? regex.getLastChild().getString() : "");
+      if (names.containsKey(key)) {
+        regex.getParent().replaceChild(regex, IR.name(names.get(key)).srcref(regex));
+      } else {
+        names.put(key, hoist(regex, "regex", moduleBody));
+      }
+    }
+
+    for (Node function : hoistedFunctions) {
+      Node parent = function.getParent();
+      hoist(function, parent.isName() ? parent.getString() : "callback",
+          getModuleBody(function));
+    }
+
+    if (!hoistedFunctions.isEmpty() || !regexes.isEmpty()) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("allocations: hoisted " + hoistedFunctions.size() + " of "
+          + functions.size() + " inner functions and " + regexes.size()
+          + " regular expressions.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isName() && !n.getString().isEmpty()) {
+      usedNames.add(n.getString());
+      Scope.Var var = t.getScope().getVar(n.getString());
+      if (var != null) {
+        Scope scope = t.getScope();
+        while (!scope.isDeclared(n.getString(), false)) {
+          scope = scope.getParent();
+        }
+        declarationScopes.put(n, scope.isGlobal() ? null : scope.getRootNode());
+        if (!references.containsKey(var)) {
+          references.put(var, new ArrayList<Node>());
+        }
+        references.get(var).add(n);
+        if (n.getFirstChild() != null && n.getFirstChild().isFunction()) {
+          functionVars.put(n.getFirstChild(), var);
+        }
+      }
+    }
+    if (n.isFunction() && !parent.isScript() && !parent.isBlock() && isInInnerFunction(n)) {
+      functions.add(n);
+    }
+    if (n.isRegExp() && isInInnerFunction(n)) {
+      String flags = n.getChildCount() > 1 ? n.getLastChild().getString() : "";
+      if (!flags.contains("g") && !flags.contains("y")) {
+        regexes.add(n);
+      }
+    }
+  }
+}
@@ -0,0 +1,414 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
+
+import com.google.javascript.rhino.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the modules created with {@code angular.module(name, requires)} and
+ * the components registered on them, along with the dependencies each
+ * registration asks the injector for.
+ *
+ * Registrations are found on {@code angular.module(...)} calls, on chains of
+ * registration calls, and on variables initialized with either. Calls on
+ * {@code $provide}, {@code $compileProvider}, {@code $controllerProvider} and
+ * {@code $filterProvider} are recorded too, without a module.
+ */
+class AngularModules extends AbstractPostOrderCallback {
+
+  static final Set<String> MODULE_METHODS = new HashSet<String>(Arrays.asList(
+      "provider", "factory", "service", "value", "constant", "decorator", "animation",
+      "filter", "controller", "directive", "config", "run"));
+
+  static final Set<String> PROVIDE_METHODS = new HashSet<String>(Arrays.asList(
+      "provider", "factory", "service", "value", "constant", "decorator"));
+
+  // $injector methods that call a function with its dependencies.
+  static final Set<String> INJECTOR_METHODS = new HashSet<String>(Arrays.asList(
+      "invoke", "instantiate"));
+
+  // Registration types that create a service with the registered name.
+  static final Set<String> SERVICE_TYPES = new HashSet<String>(Arrays.asList(
+      "provider", "factory", "service", "value", "constant"));
+
+  /**
+   * A component registered with the injector, or a config or run block.
+   */
+  static class Registration {
+    final String module;
+    final String type;
+    // Null for config and run blocks.
+    final String name;
+    // The registration call.
+    final Node call;
+    // The key of registrations made with an object literal, e.g.
+    // directive({name: factory}), otherwise null.
+    final Node key;
+    // The factory function, annotation array or reference to a function.
+    final Node definition;
+
+    Registration(String module, String type, String name, Node call, Node key,
+                 Node definition) {
+      this.module = module;
+      this.type = type;
+      this.name = name;
+      this.call = call;
+      this.key = key;
+      this.definition = definition;
+    }
+
+    /**
+     * Returns the name this registration can be injected with, or null if it
+     * can't be injected.
+     */
+    String getInjectableName() {
+      if (SERVICE_TYPES.contains(type)) {
+        return name;
+      }
+      if (type.equals("filter") || type.equals("directive")) {
+        return name + (type.equals("filter") ? "Filter" : "Directive");
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return name == null ? type + " block" : type + " '" + name + "'";
+    }
+  }
+
+  final Map<String, List<String>> moduleRequires;
+  final Map<String, Node> moduleDefinitions;
+  final List<Registration> registrations;
+  private Map<String, String> moduleAliases;
+  // The function and the $inject annotation of each variable, keyed by the
+  // name node that declares the variable.
+  private Map<Node, Node> functions;
+  private Map<Node, Node> injectAnnotations;
+  // The declaring name node that each variable reference resolves to.
+  private Map<Node, Node> declarations;
+  // Declaring name nodes of variables whose value can't be known statically,
+  // because they are assigned or annotated more than once.
+  private Set<Node> ambiguousDeclarations;
+
+  AngularModules() {
+    moduleRequires = new LinkedHashMap<String, List<String>>();
+    moduleDefinitions = new LinkedHashMap<String, Node>();
+    registrations = new ArrayList<Registration>();
+    moduleAliases = new HashMap<String, String>();
+    functions = new HashMap<Node, Node>();
+    injectAnnotations = new HashMap<Node, Node>();
+    declarations = new HashMap<Node, Node>();
+    ambiguousDeclarations = new HashSet<Node>();
+  }
+
+  void collect(AbstractCompiler compiler, Node root) {
+    NodeTraversal.traverse(compiler, root, this);
+  }
+
+  /**
+   * True for calls of the form
+   * angular.module('name', ...)
+   */
+  static boolean isModuleCall(Node ast) {
+    return ast.isCall() && ast.getFirstChild().isQualifiedName()
+        && ast.getFirstChild().getQualifiedName().equals("angular.module")
+        && ast.getChildCount() >= 2 && ast.getChildAtIndex(1).isString();
+  }
+
+  /**
+   * True for calls that define a module, i.e. have a list of requires.
+   */
+  static boolean isModuleDefinition(Node ast) {
+    return isModuleCall(ast) && ast.getChildCount() >= 3
+        && ast.getChildAtIndex(2).isArrayLit();
+  }
+
+  static List<String> getStrings(Node arrayLit) {
+    List<String> strings = new ArrayList<String>();
+    for (Node element : arrayLit.children()) {
+      if (element.isString()) {
+        strings.add(element.getString());
+      }
+    }
+    return strings;
+  }
+
+  /**
+   * Returns the module a registration call's receiver refers to, "" for the
+   * provider services, or null if it isn't a registration target.
+   */
+  private String getTargetModule(Node receiver) {
+    if (isModuleCall(receiver)) {
+      return receiver.getChildAtIndex(1).getString();
+    }
+    if (receiver.isName()) {
+      String name = receiver.getString();
+      if (moduleAliases.containsKey(name)) {
+        return moduleAliases.get(name);
+      }
+      if (name.equals("$provide") || name.equals("$compileProvider")
+          || name.equals("$controllerProvider") || name.equals("$filterProvider")) {
+        return "";
+      }
+      return null;
+    }
+    if (receiver.isCall() && receiver.getFirstChild().isGetProp()
+        && MODULE_METHODS.contains(receiver.getFirstChild().getLastChild().getString())) {
+      return getTargetModule(receiver.getFirstChild().getFirstChild());
+    }
+    return null;
+  }
+
+  private String getRegistrationType(Node receiver, String method) {
+    String target = receiver.isName() ? receiver.getString() : null;
+    if (target == null || target.equals("$provide")) {
+      return method;
+    }
+    if (target.equals("$compileProvider")) {
+      return method.equals("directive") ? method : null;
+    }
+    if (target.equals("$controllerProvider")) {
+      return method.equals("register") ? "controller" : null;
+    }
+    if (target.equals("$filterProvider")) {
+      return method.equals("register") ? "filter" : null;
+    }
+    return method;
+  }
+
+  private void visitRegistration(Node call) {
+    Node target = call.getFirstChild();
+    Node receiver = target.getFirstChild();
+    String method = target.getLastChild().getString();
+    String module = getTargetModule(receiver);
+    if (module == null) {
+      return;
+    }
+    if (module.isEmpty()) {
+      module = null;
+    } else if (!MODULE_METHODS.contains(method)) {
+      return;
+    }
+    String type = getRegistrationType(receiver, method);
+    if (type == null || (module == null && receiver.getString().equals("$provide")
+        && !PROVIDE_METHODS.contains(type))) {
+      return;
+    }
+
+    if (type.equals("config") || type.equals("run")) {
+      if (call.getChildCount() == 2) {
+        registrations.add(new Registration(module, type, null, call, null, call.getLastChild()));
+      }
+    } else if (call.getChildCount() == 2 && call.getLastChild().isObjectLit()) {
+      for (Node key : call.getLastChild().children()) {
+        if (key.isStringKey()) {
+          registrations.add(new Registration(module, type, key.getString(), call, key,
+              key.getFirstChild()));
+        }
+      }
+    } else if (call.getChildCount() == 3 && call.getChildAtIndex(1).isString()) {
+      registrations.add(new Registration(module, type, call.getChildAtIndex(1).getString(),
+          call, null, call.getLastChild()));
+    }
+  }
+
+  /**
+   * Returns the node declaring the variable a name refers to, or null if it
+   * can't be resolved or its value is ambiguous.
+   */
+  private Node getDeclaration(Node name) {
+    Node declaration = declarations.get(name);
+    return declaration == null || ambiguousDeclarations.contains(declaration)
+        ? null : declaration;
+  }
+
+  /**
+   * Returns the function a definition refers to: the function itself, the last
+   * element of an annotation array, or the function the referenced variable
+   * is declared or initialized with. Returns null if it can't be found.
+   */
+  Node getFunction(Node definition) {
+    if (definition.isFunction()) {
+      return definition;
+    }
+    if (definition.isArrayLit() && definition.hasChildren()) {
+      return getFunction(definition.getLastChild());
+    }
+    if (definition.isName() && getDeclaration(definition) != null) {
+      return functions.get(getDeclaration(definition));
+    }
+    return null;
+  }
+
+  /**
+   * True if a function referenced by name has an {@code $inject} annotation.
+   */
+  boolean hasInjectAnnotation(Node definition) {
+    return definition.isName() && getDeclaration(definition) != null
+        && injectAnnotations.containsKey(getDeclaration(definition));
+  }
+
+  /**
+   * True for calls of the form
+   * $injector.method(...)
+   */
+  static boolean isInjectorCall(Node ast, Set<String> methods) {
+    return ast.isCall() && ast.getFirstChild().isGetProp()
+        && ast.getFirstChild().getFirstChild().isName()
+        && ast.getFirstChild().getFirstChild().getString().equals("$injector")
+        && methods.contains(ast.getFirstChild().getLastChild().getString());
+  }
+
+  /**
+   * Returns the values at a node that the injector calls besides
+   * registrations: {@code controller} and {@code $get} properties, the
+   * properties of {@code resolve} objects, {@code this.$get} assignments and
+   * the functions passed to {@code $injector.invoke} and
+   * {@code $injector.instantiate}.
+   */
+  static List<Node> getInjectionSites(Node n) {
+    List<Node> sites = new ArrayList<Node>();
+    if (n.isStringKey() && n.hasChildren()) {
+      // {controller: function ($scope) {...}, resolve: {user: function (users) {...}}}
+      String key = n.getString();
+      if (key.equals("controller") || key.equals("$get")) {
+        sites.add(n.getFirstChild());
+      } else if (key.equals("resolve") && n.getFirstChild().isObjectLit()) {
+        for (Node resolve : n.getFirstChild().children()) {
+          if (resolve.isStringKey() && resolve.hasChildren()) {
+            sites.add(resolve.getFirstChild());
+          }
+        }
+      }
+    } else if (n.isAssign() && n.getFirstChild().isGetProp()
+        && n.getFirstChild().getFirstChild().isThis()
+        && n.getFirstChild().getLastChild().getString().equals("$get")) {
+      // this.$get = function (...) {...};
+      sites.add(n.getLastChild());
+    } else if (isInjectorCall(n, INJECTOR_METHODS) && n.getChildCount() >= 2) {
+      // $injector.invoke(function (...) {...})
+      sites.add(n.getChildAtIndex(1));
+    }
+    return sites;
+  }
+
+  /**
+   * Returns the names a registration asks the injector for, or null if they
+   * can't be determined statically.
+   */
+  List<String> getDependencies(Registration registration) {
+    if (registration.type.equals("value") || registration.type.equals("constant")
+        || (registration.type.equals("provider") && registration.definition.isObjectLit())) {
+      // The $get of a provider object is an injection site of its own.
+      return Collections.emptyList();
+    }
+    return getInjectedNames(registration.definition);
+  }
+
+  /**
+   * Returns the names the injector passes to a function, annotation array or
+   * function reference, or null if they can't be determined statically.
+   */
+  List<String> getInjectedNames(Node definition) {
+    if (definition.isArrayLit()) {
+      List<String> dependencies = new ArrayList<String>();
+      for (Node element = definition.getFirstChild(); element != definition.getLastChild();
+           element = element.getNext()) {
+        if (!element.isString()) {
+          return null;
+        }
+        dependencies.add(element.getString());
+      }
+      return dependencies;
+    }
+    if (hasInjectAnnotation(definition)) {
+      Node annotation = injectAnnotations.get(getDeclaration(definition));
+      return annotation.isArrayLit() ? getStrings(annotation) : null;
+    }
+    Node function = getFunction(definition);
+    if (function == null) {
+      return null;
+    }
+    List<String> dependencies = new ArrayList<String>();
+    for (Node param : function.getChildAtIndex(1).children()) {
+      dependencies.add(param.getString());
+    }
+    return dependencies;
+  }
+
+  private void putUnambiguous(Map<Node, Node> values, Node declaration, Node value) {
+    if (values.containsKey(declaration) && values.get(declaration) != value) {
+      ambiguousDeclarations.add(declaration);
+    }
+    values.put(declaration, value);
+  }
+
+  /**
+   * Resolves a variable reference, and records the function the variable is
+   * declared or initialized with.
+   */
+  private void visitName(NodeTraversal t, Node n, Node parent) {
+    Scope.Var var = t.getScope().getVar(n.getString());
+    if (var == null) {
+      return;
+    }
+    Node declaration = var.getNameNode();
+    declarations.put(n, declaration);
+    if (n.hasChildren() && n.getFirstChild().isFunction()) {
+      // var Controller = function ($scope) {...};
+      putUnambiguous(functions, declaration, n.getFirstChild());
+    } else if (parent.isFunction() && (parent.getParent().isScript()
+        || parent.getParent().isBlock())) {
+      // function Controller($scope) {...}
+      putUnambiguous(functions, declaration, parent);
+    } else if ((parent.isAssign() && parent.getFirstChild() == n)
+        || parent.isInc() || parent.isDec()) {
+      ambiguousDeclarations.add(declaration);
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (isModuleDefinition(n)) {
+      String module = n.getChildAtIndex(1).getString();
+      moduleRequires.put(module, getStrings(n.getChildAtIndex(2)));
+      moduleDefinitions.put(module, n);
+    }
+    if (n.isCall() && n.getFirstChild().isGetProp()) {
+      visitRegistration(n);
+    }
+    if (n.isName() && n.hasChildren()) {
+      // var app = angular.module('app', []);
+      String module = getTargetModule(n.getFirstChild());
+      if (module != null && !module.isEmpty()) {
+        moduleAliases.put(n.getString(), module);
+      }
+    }
+    if (n.isName() && !n.getString().isEmpty()) {
+      visitName(t, n, parent);
+    }
+    if (n.isAssign() && n.getFirstChild().isGetProp()
+        && n.getFirstChild().getFirstChild().isName()
+        && n.getFirstChild().getLastChild().getString().equals("$inject")) {
+      // Controller.$inject = ['$scope'];
+      Node declaration = declarations.get(n.getFirstChild().getFirstChild());
+      if (declaration != null) {
+        putUnambiguous(injectAnnotations, declaration, n.getLastChild());
+      }
+    }
+  }
+}
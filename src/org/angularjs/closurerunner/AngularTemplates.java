@@ -0,0 +1,182 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.rhino.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for finding templates registered with {@code $templateCache} and
+ * the Angular expressions they contain.
+ */
+class AngularTemplates {
+  static final Pattern INTERPOLATION_REGEX = Pattern.compile("\\{\\{([\\s\\S]*?)\\}\\}");
+  static final Pattern TAG_REGEX = Pattern.compile("<([a-zA-Z][\\w:-]*)([^>]*)>");
+  static final Pattern ATTRIBUTE_REGEX =
+      Pattern.compile("([^\\s=\"'/>]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+  static final Pattern ATTRIBUTE_NAME_REGEX =
+      Pattern.compile("([^\\s=\"'/>]+)(?:\\s*=\\s*(?:\"[^\"]*\"|'[^']*'|[^\\s\"'>]+))?");
+  static final Pattern COMMENT_DIRECTIVE_REGEX =
+      Pattern.compile("<!--\\s*directive:\\s*([\\w:-]+)");
+  static final Pattern FILTER_REGEX = Pattern.compile("(?<!\\|)\\|(?!\\|)\\s*([A-Za-z_$][\\w$]*)");
+
+  // Built-in directives whose attribute value is an expression.
+  static final Set<String> EXPRESSION_DIRECTIVES = new HashSet<String>(Arrays.asList(
+      "ngBind", "ngBlur", "ngChange", "ngChecked", "ngClass", "ngClassEven", "ngClassOdd",
+      "ngClick", "ngCopy", "ngCut", "ngDblclick", "ngDisabled", "ngFocus", "ngHide", "ngIf",
+      "ngInit", "ngKeydown", "ngKeypress", "ngKeyup", "ngModel", "ngMousedown",
+      "ngMouseenter", "ngMouseleave", "ngMousemove", "ngMouseover", "ngMouseup", "ngOpen",
+      "ngPaste", "ngReadonly", "ngRequired", "ngSelected", "ngShow", "ngStyle", "ngSubmit",
+      "ngSwitch", "ngValue"));
+
+  private AngularTemplates() {}
+
+  /**
+   * True for calls of the form
+   * $templateCache.put('url', 'html')
+   */
+  static boolean isTemplateCachePut(Node ast) {
+    if (ast.isCall() && ast.getChildCount() == 3 && ast.getFirstChild().isGetProp()) {
+      Node target = ast.getFirstChild();
+      return target.getFirstChild().isName()
+          && target.getFirstChild().getString().equals("$templateCache")
+          && target.getLastChild().getString().equals("put")
+          && ast.getChildAtIndex(1).isString()
+          && ast.getChildAtIndex(2).isString();
+    }
+    return false;
+  }
+
+  static String getTemplateHtml(Node templateCachePut) {
+    return templateCachePut.getChildAtIndex(2).getString();
+  }
+
+  /**
+   * Converts an attribute or element name to the directive name Angular
+   * normalizes it to, e.g. 'data-ng-click' and 'ng:click' to 'ngClick'.
+   */
+  static String normalizeDirectiveName(String name) {
+    String stripped = name.toLowerCase().replaceFirst("^(x|data)[:\\-_]", "");
+    StringBuilder normalized = new StringBuilder();
+    boolean upper = false;
+    for (char c : stripped.toCharArray()) {
+      if (c == ':' || c == '-' || c == '_') {
+        upper = normalized.length() > 0;
+      } else {
+        normalized.append(upper ? Character.toUpperCase(c) : c);
+        upper = false;
+      }
+    }
+    return normalized.toString();
+  }
+
+  static String unescapeHtml(String text) {
+    return text
+        .replace("&lt;", "<")
+        .replace("&gt;", ">")
+        .replace("&quot;", "\"")
+        .replace("&#39;", "'")
+        .replace("&apos;", "'")
+        .replace("&amp;", "&");
+  }
+
+  /**
+   * Returns a text as a JavaScript string literal, for the code the passes
+   * generate.
+   */
+  static String quote(String text) {
+    StringBuilder quoted = new StringBuilder("'");
+    for (char c : text.toCharArray()) {
+      switch (c) {
+        case '\'': quoted.append("\\'"); break;
+        case '\\': quoted.append("\\\\"); break;
+        case '\n': quoted.append("\\n"); break;
+        case '\r': quoted.append("\\r"); break;
+        case '\t': quoted.append("\\t"); break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append("'").toString();
+  }
+
+  /**
+   * Returns the expressions in a template: the contents of every
+   * {{interpolation}} and the values of attributes for built-in directives
+   * that take an expression. The text is returned as Angular passes it to
+   * {@code $parse}.
+   */
+  static List<String> extractExpressions(String html) {
+    List<String> expressions = new ArrayList<String>();
+    Matcher interpolation = INTERPOLATION_REGEX.matcher(html);
+    while (interpolation.find()) {
+      expressions.add(unescapeHtml(interpolation.group(1)));
+    }
+    Matcher tag = TAG_REGEX.matcher(html);
+    while (tag.find()) {
+      Matcher attribute = ATTRIBUTE_REGEX.matcher(tag.group(2));
+      while (attribute.find()) {
+        String value = attribute.group(2) != null ? attribute.group(2) : attribute.group(3);
+        if (EXPRESSION_DIRECTIVES.contains(normalizeDirectiveName(attribute.group(1)))
+            && !value.contains("{{")) {
+          expressions.add(unescapeHtml(value));
+        }
+      }
+    }
+    return expressions;
+  }
+
+  /**
+   * Returns the normalized names of everything in a template that could match
+   * a directive: element and attribute names, class names and comment
+   * directives.
+   */
+  static Set<String> extractDirectiveNames(String html) {
+    Set<String> names = new HashSet<String>();
+    Matcher tag = TAG_REGEX.matcher(html);
+    while (tag.find()) {
+      names.add(normalizeDirectiveName(tag.group(1)));
+      Matcher attribute = ATTRIBUTE_NAME_REGEX.matcher(tag.group(2));
+      while (attribute.find()) {
+        names.add(normalizeDirectiveName(attribute.group(1)));
+      }
+      Matcher classes = ATTRIBUTE_REGEX.matcher(tag.group(2));
+      while (classes.find()) {
+        if (classes.group(1).equalsIgnoreCase("class")) {
+          String value = classes.group(2) != null ? classes.group(2) : classes.group(3);
+          for (String className : value.split("[\\s;:]+")) {
+            names.add(normalizeDirectiveName(className));
+          }
+        }
+      }
+    }
+    Matcher comment = COMMENT_DIRECTIVE_REGEX.matcher(html);
+    while (comment.find()) {
+      names.add(normalizeDirectiveName(comment.group(1)));
+    }
+    return names;
+  }
+
+  /**
+   * Returns the names of the filters a template may use. This errs on the
+   * side of finding too many, as it doesn't check that a '|' is inside an
+   * expression.
+   */
+  static Set<String> extractFilterNames(String html) {
+    Set<String> names = new HashSet<String>();
+    Matcher filter = FILTER_REGEX.matcher(html);
+    while (filter.find()) {
+      names.add(filter.group(1));
+    }
+    return names;
+  }
+}
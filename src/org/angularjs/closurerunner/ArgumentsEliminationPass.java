@@ -0,0 +1,315 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces reads of {@code arguments} with parameters, and with a slice for
+ * a variadic tail that is read in a loop, e.g.
+ * function () {
+ *   var code = arguments[0];
+ *   for (i = 1; i < arguments.length; i++) { p.push(arguments[i]); }
+ * }
+ * to
+ * function (arg0) {
+ *   var rest = Array.prototype.slice.call(arguments, 1);
+ *   var code = arg0;
+ *   for (i = 1; i < rest.length + 1; i++) { p.push(rest[i - 1]); }
+ * }
+ *
+ * Only functions whose every use of arguments is a read with a constant
+ * index, or a read indexed by the variable of a loop that runs from a
+ * constant to arguments.length, or that loop's condition, are rewritten.
+ * Other reads of arguments.length are not, as the slice is shorter than the
+ * start when fewer arguments are passed. The
+ * parameters used for the constant indices must not be assigned, as
+ * arguments only mirrors them in sloppy mode. Parameters are added as
+ * needed, which changes the function's length property.
+ */
+class ArgumentsEliminationPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Set<String> usedNames;
+  private List<Node> functions;
+
+  public ArgumentsEliminationPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  private String createUniqueName(String base) {
+    String name = base;
+    for (int i = 0; usedNames.contains(name); i++) {
+      name = base + "$" + i;
+    }
+    usedNames.add(name);
+    return name;
+  }
+
+  private static boolean isArguments(Node ast) {
+    return ast.isName() && ast.getString().equals("arguments");
+  }
+
+  /**
+   * Collects the uses of a function's own arguments object.
+   */
+  private static void collectArguments(Node ast, List<Node> uses) {
+    for (Node child : ast.children()) {
+      if (isArguments(child)) {
+        uses.add(child);
+      } else if (!child.isFunction()) {
+        collectArguments(child, uses);
+      }
+    }
+  }
+
+  private static boolean isWritten(Node ast) {
+    Node parent = ast.getParent();
+    return parent.isInc() || parent.isDec()
+        || (CallStrippingPass.isAssignmentOp(parent) && parent.getFirstChild() == ast);
+  }
+
+  /**
+   * True if a name is assigned or declared anywhere in a subtree.
+   */
+  private static boolean isAssigned(Node ast, String name) {
+    if (ast.isName() && ast.getString().equals(name)
+        && (isWritten(ast) || ast.getParent().isVar() || ast.getParent().isParamList())) {
+      return true;
+    }
+    for (Node child : ast.children()) {
+      if (isAssigned(child, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the index a tail loop starts at, if a loop has the form
+   * for (i = K; i < arguments.length; i++) {...}
+   * and doesn't otherwise change i, or -1.
+   */
+  private static int getTailStart(Node loop, String index) {
+    if (!loop.isFor() || loop.getChildCount() != 4) {
+      return -1;
+    }
+    Node init = loop.getFirstChild();
+    Node start = null;
+    if (init.isVar() && init.getChildCount() == 1) {
+      init = init.getFirstChild();
+      start = init.getString().equals(index) ? init.getFirstChild() : null;
+    } else if (init.isAssign() && init.getFirstChild().isName()
+        && init.getFirstChild().getString().equals(index)) {
+      start = init.getLastChild();
+    }
+    if (start == null || !start.isNumber() || start.getDouble() < 0
+        || start.getDouble() != Math.floor(start.getDouble())) {
+      return -1;
+    }
+    Node condition = loop.getChildAtIndex(1);
+    Node update = loop.getChildAtIndex(2);
+    if (condition.getType() != Token.LT || !condition.getFirstChild().isName()
+        || !condition.getFirstChild().getString().equals(index)
+        || !isArgumentsLength(condition.getLastChild())
+        || !update.isInc() || !update.getFirstChild().isName()
+        || !update.getFirstChild().getString().equals(index)
+        || isAssigned(loop.getLastChild(), index)) {
+      return -1;
+    }
+    return (int) start.getDouble();
+  }
+
+  private static boolean isArgumentsLength(Node ast) {
+    return ast.isGetProp() && isArguments(ast.getFirstChild())
+        && ast.getLastChild().getString().equals("length");
+  }
+
+  /**
+   * Returns the tail loop a read indexed by a variable is in, or null.
+   */
+  private static Node getTailLoop(Node read, Node function) {
+    String index = read.getLastChild().getString();
+    for (Node ancestor = read.getParent(); ancestor != function;
+         ancestor = ancestor.getParent()) {
+      if (ancestor.isFor() && getTailStart(ancestor, index) >= 0
+          && ancestor.getLastChild() != read && isAncestor(ancestor.getLastChild(), read)) {
+        return ancestor;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the tail loop an arguments.length read is the condition of, or
+   * null.
+   */
+  private static Node getConditionLoop(Node lengthRead) {
+    Node condition = lengthRead.getParent();
+    Node loop = condition.getParent();
+    if (condition.getType() != Token.LT || condition.getLastChild() != lengthRead
+        || !condition.getFirstChild().isName() || !loop.isFor()
+        || loop.getChildCount() != 4 || loop.getChildAtIndex(1) != condition
+        || getTailStart(loop, condition.getFirstChild().getString()) < 0) {
+      return null;
+    }
+    return loop;
+  }
+
+  private static boolean isAncestor(Node ancestor, Node n) {
+    for (Node current = n; current != null; current = current.getParent()) {
+      if (current == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rewrites a function's uses of arguments, returning false if they don't
+   * all have one of the supported forms.
+   */
+  private boolean eliminate(Node function, List<Node> uses) {
+    Map<Node, Integer> constantReads = new LinkedHashMap<Node, Integer>();
+    List<Node> tailReads = new ArrayList<Node>();
+    List<Node> lengthReads = new ArrayList<Node>();
+    int tailStart = -1;
+    for (Node use : uses) {
+      Node parent = use.getParent();
+      if (isArgumentsLength(parent)) {
+        Node loop = getConditionLoop(parent);
+        if (loop == null) {
+          return false;
+        }
+        int start = getTailStart(loop, parent.getParent().getFirstChild().getString());
+        if (tailStart >= 0 && start != tailStart) {
+          return false;
+        }
+        tailStart = start;
+        lengthReads.add(parent);
+        continue;
+      }
+      if (!parent.isGetElem() || parent.getFirstChild() != use || isWritten(parent)
+          || (parent.getParent().isCall() && parent.getParent().getFirstChild() == parent)) {
+        // Calling arguments[0]() passes arguments as this.
+        return false;
+      }
+      Node index = parent.getLastChild();
+      if (index.isNumber() && index.getDouble() >= 0
+          && index.getDouble() == Math.floor(index.getDouble())) {
+        constantReads.put(parent, (int) index.getDouble());
+        continue;
+      }
+      Node loop = index.isName() ? getTailLoop(parent, function) : null;
+      if (loop == null) {
+        return false;
+      }
+      int start = getTailStart(loop, index.getString());
+      if (tailStart >= 0 && start != tailStart) {
+        return false;
+      }
+      tailStart = start;
+      tailReads.add(parent);
+    }
+    Node params = function.getChildAtIndex(1);
+    Node body = function.getLastChild();
+    for (int index : constantReads.values()) {
+      if (index < params.getChildCount()
+          && (tailStart < 0 || index < tailStart)
+          && isAssigned(body, params.getChildAtIndex(index).getString())) {
+        return false;
+      }
+    }
+
+    String restName = tailStart >= 0 ? createUniqueName("rest") : null;
+    for (Map.Entry<Node, Integer> read : constantReads.entrySet()) {
+      int index = read.getValue();
+      Node replacement;
+      if (restName != null && index >= tailStart) {
+        replacement = IR.getelem(IR.name(restName), IR.number(index - tailStart));
+      } else {
+        while (params.getChildCount() <= index) {
+          params.addChildToBack(IR.name(createUniqueName("arg" + params.getChildCount()))
+              .srcref(params));
+        }
+        replacement = IR.name(params.getChildAtIndex(index).getString());
+      }
+      read.getKey().getParent().replaceChild(read.getKey(),
+          replacement.useSourceInfoIfMissingFromForTree(read.getKey()));
+    }
+    for (Node read : tailReads) {
+      Node index = read.getLastChild().detachFromParent();
+      Node replacement = IR.getelem(IR.name(restName),
+          tailStart == 0 ? index : new Node(Token.SUB, index, IR.number(tailStart)));
+      read.getParent().replaceChild(read, replacement.useSourceInfoIfMissingFromForTree(read));
+    }
+    for (Node read : lengthReads) {
+      Node length = IR.getprop(IR.name(restName), IR.string("length"));
+      Node replacement = tailStart == 0 ? length : IR.add(length, IR.number(tailStart));
+      read.getParent().replaceChild(read, replacement.useSourceInfoIfMissingFromForTree(read));
+    }
+    if (restName != null) {
+      // var rest = Array.prototype.slice.call(arguments, K);
+      Node slice = IR.call(
+          IR.getprop(IR.getprop(IR.getprop(IR.name("Array"), IR.string("prototype")),
+              IR.string("slice")), IR.string("call")),
+          IR.name("arguments"), IR.number(tailStart));
+      body.addChildToFront(
+          IR.var(IR.name(restName), slice).useSourceInfoIfMissingFromForTree(body));
+    }
+    return true;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    usedNames = new HashSet<String>();
+    functions = new ArrayList<Node>();
+    NodeTraversal.traverse(compiler, root, this);
+
+    int rewritten = 0;
+    int candidates = 0;
+    for (Node function : functions) {
+      List<Node> uses = new ArrayList<Node>();
+      collectArguments(function.getLastChild(), uses);
+      if (uses.isEmpty() || isAssigned(function, "arguments")) {
+        continue;
+      }
+      candidates++;
+      if (eliminate(function, uses)) {
+        rewritten++;
+      }
+    }
+    if (rewritten > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("arguments: rewrote " + rewritten + " of " + candidates
+          + " functions using arguments.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isName()) {
+      usedNames.add(n.getString());
+    }
+    if (n.isFunction()) {
+      functions.add(n);
+    }
+  }
+}
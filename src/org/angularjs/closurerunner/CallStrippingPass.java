@@ -0,0 +1,155 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+import java.io.PrintStream;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes calls that only matter during development, such as debug logging
+ * and argument assertions, e.g.
+ * $log.debug('compiling', name);
+ * assertArg(fn, 'fn');
+ *
+ * A call is matched by its qualified name, or by the end of it, so that
+ * 'assertArg' also matches 'angular.assertArg' and '$log.debug' also matches
+ * 'this.$log.debug'. Only calls that are statements of their own and whose
+ * arguments have no side effects are removed.
+ */
+class CallStrippingPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private List<String> names;
+  private PrintStream reportOutput;
+  private Map<String, Integer> removedCalls;
+  private int removedBytes;
+
+  static final List<String> DEFAULT_NAMES = Arrays.asList(
+      "$log.debug", "assertArg", "assertArgFn", "assertNotHasOwnProperty");
+
+  public CallStrippingPass(AbstractCompiler compiler, List<String> names,
+                           PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.names = names;
+    this.reportOutput = reportOutput;
+  }
+
+  private String getStrippedName(Node callee) {
+    if (!callee.isQualifiedName()) {
+      return null;
+    }
+    String qualifiedName = callee.getQualifiedName();
+    for (String name : names) {
+      if (qualifiedName.equals(name) || qualifiedName.endsWith("." + name)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * True if evaluating the expression can't have side effects. Property
+   * reads are assumed not to have any, as in Closure's own optimizations.
+   */
+  static boolean isSideEffectFree(Node ast) {
+    if (isAssignmentOp(ast)) {
+      return false;
+    }
+    switch (ast.getType()) {
+      case Token.FUNCTION:
+        return true;
+      case Token.CALL:
+      case Token.NEW:
+      case Token.INC:
+      case Token.DEC:
+      case Token.DELPROP:
+        return false;
+      default:
+        for (Node child : ast.children()) {
+          if (!isSideEffectFree(child)) {
+            return false;
+          }
+        }
+        return true;
+    }
+  }
+
+  static boolean isAssignmentOp(Node ast) {
+    switch (ast.getType()) {
+      case Token.ASSIGN:
+      case Token.ASSIGN_BITOR:
+      case Token.ASSIGN_BITXOR:
+      case Token.ASSIGN_BITAND:
+      case Token.ASSIGN_LSH:
+      case Token.ASSIGN_RSH:
+      case Token.ASSIGN_URSH:
+      case Token.ASSIGN_ADD:
+      case Token.ASSIGN_SUB:
+      case Token.ASSIGN_MUL:
+      case Token.ASSIGN_DIV:
+      case Token.ASSIGN_MOD:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    removedCalls = new LinkedHashMap<String, Integer>();
+    removedBytes = 0;
+    NodeTraversal.traverse(compiler, root, this);
+
+    int total = 0;
+    StringBuilder counts = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : removedCalls.entrySet()) {
+      total += entry.getValue();
+      counts.append(counts.length() > 0 ? ", " : "").append(entry.getKey()).append(": ")
+          .append(entry.getValue());
+    }
+    if (total > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("calls: removed " + total + " call sites"
+          + (total > 0 ? " (" + counts + ")" : "") + ", saving about " + removedBytes
+          + " bytes.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (!n.isCall() || !parent.isExprResult()) {
+      return;
+    }
+    String name = getStrippedName(n.getFirstChild());
+    if (name == null) {
+      return;
+    }
+    for (Node arg = n.getChildAtIndex(1); arg != null; arg = arg.getNext()) {
+      if (!isSideEffectFree(arg)) {
+        return;
+      }
+    }
+
+    removedBytes += CodeSizeEstimator.estimateSize(parent);
+    Node statementParent = parent.getParent();
+    if (statementParent.isBlock() || statementParent.isScript()) {
+      statementParent.removeChild(parent);
+    } else {
+      statementParent.replaceChild(parent, IR.empty());
+    }
+    Integer count = removedCalls.get(name);
+    removedCalls.put(name, count == null ? 1 : count + 1);
+  }
+}
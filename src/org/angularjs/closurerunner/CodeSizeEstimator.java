@@ -0,0 +1,32 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+
+import com.google.javascript.rhino.Node;
+
+/**
+ * Estimates how many bytes a subtree takes up in compact output. The numbers
+ * are taken before renaming, so they are only meant for size reports.
+ */
+class CodeSizeEstimator {
+  private static Compiler printer;
+
+  private CodeSizeEstimator() {}
+
+  static synchronized int estimateSize(Node ast) {
+    if (ast.isStringKey()) {
+      // Only the key is printed for a property on its own.
+      return ast.getString().length() + 1 + estimateSize(ast.getFirstChild());
+    }
+    // A separate compiler is used for printing so that the source map of the
+    // real compilation is left alone.
+    if (printer == null) {
+      printer = new Compiler();
+      printer.initOptions(new CompilerOptions());
+    }
+    Compiler.CodeBuilder builder = new Compiler.CodeBuilder();
+    printer.toSource(builder, 0, ast);
+    return builder.getLength();
+  }
+}
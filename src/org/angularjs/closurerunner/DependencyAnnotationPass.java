@@ -0,0 +1,164 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites injectable functions that rely on their parameter names into the
+ * array annotation form, e.g.
+ * function ($scope, users) {...}
+ * to
+ * ['$scope', 'users', function ($scope, users) {...}]
+ * so that renaming the parameters doesn't break the injector.
+ *
+ * Besides the functions registered on modules, this annotates the functions
+ * in {@code resolve} properties, those passed to {@code $injector.invoke} and
+ * {@code $injector.instantiate}, and those in {@code controller} and
+ * {@code $get} properties of provider objects, as in
+ * provider('name', {$get: ...}), and of the objects directive factories
+ * return.
+ * Functions referenced by name are annotated at the reference, unless they
+ * have an {@code $inject} property.
+ */
+class DependencyAnnotationPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private AngularModules modules;
+  private Set<Node> injectables;
+  // The object literals whose controller and $get properties are injected.
+  private Set<Node> definitionObjects;
+  // The functions in controller and $get properties.
+  private List<Node> propertySites;
+
+  public DependencyAnnotationPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  /**
+   * Adds the object literals a function returns to the definition objects.
+   */
+  private void addReturnedObjects(Node ast) {
+    for (Node child : ast.children()) {
+      if (child.isReturn() && child.hasChildren() && child.getFirstChild().isObjectLit()) {
+        definitionObjects.add(child.getFirstChild());
+      } else if (!child.isFunction()) {
+        addReturnedObjects(child);
+      }
+    }
+  }
+
+  private void addDefinitionObjects(String type, Node definition) {
+    if (type.equals("provider") && definition.isObjectLit()) {
+      definitionObjects.add(definition);
+    }
+    Node factory = modules.getFunction(definition);
+    if (type.equals("directive") && factory != null) {
+      addReturnedObjects(factory.getLastChild());
+    }
+  }
+
+  private static boolean isPropertySite(Node site) {
+    Node key = site.getParent();
+    return key.isStringKey()
+        && (key.getString().equals("controller") || key.getString().equals("$get"));
+  }
+
+  private void addInjectable(Node definition) {
+    if (definition.isFunction() || definition.isName()) {
+      injectables.add(definition);
+    }
+  }
+
+  /**
+   * Replaces an injectable function or function reference with an annotation
+   * array. Returns false if it doesn't need annotating.
+   */
+  private boolean annotate(Node definition) {
+    if (modules.hasInjectAnnotation(definition)) {
+      return false;
+    }
+    Node function = modules.getFunction(definition);
+    if (function == null || !function.getChildAtIndex(1).hasChildren()) {
+      return false;
+    }
+    Node annotation = IR.arraylit();
+    for (Node param : function.getChildAtIndex(1).children()) {
+      annotation.addChildToBack(IR.string(param.getString()));
+    }
+    definition.getParent().replaceChild(definition, annotation);
+    annotation.addChildToBack(definition);
+    annotation.useSourceInfoIfMissingFromForTree(definition);
+    return true;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    modules = new AngularModules();
+    modules.collect(compiler, root);
+    injectables = new LinkedHashSet<Node>();
+    definitionObjects = new HashSet<Node>();
+
+    for (Registration registration : modules.registrations) {
+      if (!registration.type.equals("value") && !registration.type.equals("constant")) {
+        addInjectable(registration.definition);
+      }
+      addDefinitionObjects(registration.type, registration.definition);
+    }
+    propertySites = new ArrayList<Node>();
+    NodeTraversal.traverse(compiler, root, this);
+    for (Node site : propertySites) {
+      if (definitionObjects.contains(site.getParent().getParent())) {
+        addInjectable(site);
+      }
+    }
+
+    int annotated = 0;
+    for (Node definition : injectables) {
+      if (annotate(definition)) {
+        annotated++;
+      }
+    }
+    if (annotated > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("annotations: annotated " + annotated + " injectable functions.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isCall() && n.getChildCount() == 3 && n.getFirstChild().isGetProp()
+        && n.getChildAtIndex(1).isString()) {
+      // Also registrations on modules that aren't known, e.g.
+      // app.directive('name', factory)
+      String method = n.getFirstChild().getLastChild().getString();
+      if (AngularModules.MODULE_METHODS.contains(method)) {
+        addDefinitionObjects(method, n.getLastChild());
+      }
+    }
+    for (Node site : AngularModules.getInjectionSites(n)) {
+      if (isPropertySite(site)) {
+        propertySites.add(site);
+      } else {
+        addInjectable(site);
+      }
+    }
+  }
+}
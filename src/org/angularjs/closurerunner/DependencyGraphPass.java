@@ -0,0 +1,221 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.DiagnosticType;
+import com.google.javascript.jscomp.JSError;
+
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import org.json.JSONObject;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the dependency injection graph of the registrations found by
+ * {@link AngularModules} and checks it for dependencies nothing provides and
+ * for circular dependencies, both of which would otherwise only fail when the
+ * injector runs.
+ *
+ * The graph is written as JSON: the modules with their requires, each
+ * injectable with its dependencies, and an instantiation order in which every
+ * service comes after its dependencies.
+ *
+ * Names starting with '$' are assumed to be provided by Angular unless the
+ * compiled code registers them itself. Controllers can also be injected with
+ * the keys of the resolve object of a route or modal that names them, and
+ * with the locals of $controller('name', {...}) calls.
+ */
+class DependencyGraphPass implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream graphOutput;
+  private AngularModules modules;
+  private Map<String, Registration> injectables;
+  private Map<String, List<String>> dependencies;
+  private List<String> order;
+  // The locals each controller is injected with, by controller name.
+  private Map<String, Set<String>> controllerLocals;
+
+  static final DiagnosticType MISSING_PROVIDER_WARNING =
+      DiagnosticType.warning("JSC_NG_MISSING_PROVIDER_WARNING",
+          "Unknown provider {0} required by {1}.");
+
+  static final DiagnosticType CIRCULAR_DEPENDENCY_ERROR =
+      DiagnosticType.error("JSC_NG_CIRCULAR_DEPENDENCY_ERROR",
+          "Circular dependency found: {0}");
+
+  public DependencyGraphPass(AbstractCompiler compiler, PrintStream graphOutput) {
+    this.compiler = compiler;
+    this.graphOutput = graphOutput;
+  }
+
+  private boolean isProvided(String name) {
+    if (injectables.containsKey(name)) {
+      return true;
+    }
+    if (name.startsWith("$")) {
+      return true;
+    }
+    if (name.endsWith("Provider")) {
+      Registration service = injectables.get(
+          name.substring(0, name.length() - "Provider".length()));
+      return service != null && AngularModules.SERVICE_TYPES.contains(service.type)
+          && !service.type.equals("constant");
+    }
+    return false;
+  }
+
+  private void addLocals(Node controller, Node locals) {
+    // 'Main as main'
+    String name = controller.getString().split("\\s+as\\s+")[0].trim();
+    if (!controllerLocals.containsKey(name)) {
+      controllerLocals.put(name, new HashSet<String>());
+    }
+    for (Node key : locals.children()) {
+      if (key.isStringKey()) {
+        controllerLocals.get(name).add(key.getString());
+      }
+    }
+  }
+
+  /**
+   * Collects the locals of controllers from {controller: 'name', resolve:
+   * {...}} objects and $controller('name', {...}) calls.
+   */
+  private void collectLocals(Node n) {
+    if (n.isObjectLit()) {
+      Node controller = null;
+      Node resolve = null;
+      for (Node key : n.children()) {
+        if (key.isStringKey() && key.getString().equals("controller")) {
+          controller = key.getFirstChild();
+        } else if (key.isStringKey() && key.getString().equals("resolve")) {
+          resolve = key.getFirstChild();
+        }
+      }
+      if (controller != null && controller.isString() && resolve != null
+          && resolve.isObjectLit()) {
+        addLocals(controller, resolve);
+      }
+    } else if (n.isCall() && n.getChildCount() == 3 && n.getFirstChild().isName()
+        && n.getFirstChild().getString().equals("$controller")
+        && n.getChildAtIndex(1).isString() && n.getLastChild().isObjectLit()) {
+      addLocals(n.getChildAtIndex(1), n.getLastChild());
+    }
+    for (Node child : n.children()) {
+      collectLocals(child);
+    }
+  }
+
+  private void checkDependencies(Registration registration, List<String> names) {
+    Set<String> locals = registration.type.equals("controller")
+        ? controllerLocals.get(registration.name) : null;
+    for (String name : names) {
+      if (!isProvided(name) && (locals == null || !locals.contains(name))) {
+        compiler.report(JSError.make(registration.definition, MISSING_PROVIDER_WARNING,
+            name, registration.toString()));
+      }
+    }
+  }
+
+  /**
+   * Adds the injectable and its dependencies to the instantiation order,
+   * reporting the first cycle found through it.
+   */
+  private void visit(String name, LinkedList<String> path, Set<String> visited) {
+    if (path.contains(name)) {
+      StringBuilder cycle = new StringBuilder(name);
+      for (String dependent : path.subList(path.indexOf(name), path.size())) {
+        cycle.insert(name.length(), " <- " + dependent);
+      }
+      compiler.report(JSError.make(injectables.get(name).definition,
+          CIRCULAR_DEPENDENCY_ERROR, cycle.toString()));
+      return;
+    }
+    if (!visited.add(name)) {
+      return;
+    }
+    path.addLast(name);
+    List<String> names = dependencies.get(name);
+    if (names != null) {
+      for (String dependency : names) {
+        if (injectables.containsKey(dependency)) {
+          visit(dependency, path, visited);
+        }
+      }
+    }
+    path.removeLast();
+    order.add(name);
+  }
+
+  private Map<String, Object> createGraph() {
+    Map<String, Object> providers = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, Registration> entry : injectables.entrySet()) {
+      Map<String, Object> provider = new LinkedHashMap<String, Object>();
+      Registration registration = entry.getValue();
+      provider.put("type", registration.type);
+      if (registration.module != null) {
+        provider.put("module", registration.module);
+      }
+      if (dependencies.get(entry.getKey()) != null) {
+        provider.put("dependencies", dependencies.get(entry.getKey()));
+      }
+      providers.put(entry.getKey(), provider);
+    }
+
+    Map<String, Object> graph = new LinkedHashMap<String, Object>();
+    graph.put("modules", modules.moduleRequires);
+    graph.put("providers", providers);
+    graph.put("order", order);
+    return graph;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    modules = new AngularModules();
+    modules.collect(compiler, root);
+    injectables = new LinkedHashMap<String, Registration>();
+    dependencies = new HashMap<String, List<String>>();
+    order = new ArrayList<String>();
+    controllerLocals = new HashMap<String, Set<String>>();
+    collectLocals(root);
+
+    for (Registration registration : modules.registrations) {
+      String name = registration.getInjectableName();
+      // Later registrations replace earlier ones, except for directives,
+      // which can have several.
+      if (name != null && (!injectables.containsKey(name)
+          || !registration.type.equals("directive"))) {
+        injectables.put(name, registration);
+        dependencies.put(name, modules.getDependencies(registration));
+      }
+    }
+
+    for (Registration registration : modules.registrations) {
+      List<String> names = modules.getDependencies(registration);
+      if (names != null) {
+        checkDependencies(registration, names);
+      }
+    }
+
+    Set<String> visited = new HashSet<String>();
+    for (String name : injectables.keySet()) {
+      visit(name, new LinkedList<String>(), visited);
+    }
+
+    if (graphOutput != null) {
+      graphOutput.print(new JSONObject(createGraph()).toString());
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports a table that maps the attribute and element names of the registered
+ * directives to their normalized names, so that the runtime can look names up
+ * instead of normalizing every attribute it compiles, e.g.
+ * window['angularDirectiveNames'] = {'ng-click': 'ngClick',
+ *     'data-ng-click': 'ngClick', 'x-ng-click': 'ngClick', ...};
+ *
+ * Directives are those registered on modules and with $compileProvider,
+ * including the object form. Each name is listed in the forms HTML commonly
+ * uses: dashed, with the data- and x- prefixes, and with ':' and '_'
+ * separators. The normalized name itself is only listed if it is one of
+ * them, as HTML attribute and element names are lowercase. Names that aren't
+ * in the table still have to be normalized at runtime.
+ */
+class DirectiveNameTablePass implements CompilerPass {
+  final AbstractCompiler compiler;
+  private String tableName;
+  private PrintStream reportOutput;
+
+  public DirectiveNameTablePass(AbstractCompiler compiler, String tableName,
+                                PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.tableName = tableName;
+    this.reportOutput = reportOutput;
+  }
+
+  /**
+   * Converts a directive name to its dashed form, e.g. 'ngClick' to
+   * 'ng-click'.
+   */
+  static String denormalizeDirectiveName(String name, char separator) {
+    StringBuilder denormalized = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      if (Character.isUpperCase(c)) {
+        denormalized.append(separator).append(Character.toLowerCase(c));
+      } else {
+        denormalized.append(c);
+      }
+    }
+    return denormalized.toString();
+  }
+
+  /**
+   * Returns the names that HTML uses for a directive name, i.e. those that
+   * normalize back to it.
+   */
+  static List<String> getDenormalizedNames(String name) {
+    String dashed = denormalizeDirectiveName(name, '-');
+    List<String> candidates = new ArrayList<String>();
+    candidates.add(dashed);
+    candidates.add("data-" + dashed);
+    candidates.add("x-" + dashed);
+    candidates.add(denormalizeDirectiveName(name, ':'));
+    candidates.add(denormalizeDirectiveName(name, '_'));
+
+    Set<String> names = new LinkedHashSet<String>();
+    for (String candidate : candidates) {
+      // Skip names that don't normalize back, e.g. 'x-foo' for xFoo, as the
+      // x- prefix is stripped.
+      if (AngularTemplates.normalizeDirectiveName(candidate).equals(name)) {
+        names.add(candidate);
+      }
+    }
+    return new ArrayList<String>(names);
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    AngularModules modules = new AngularModules();
+    modules.collect(compiler, root);
+    Set<String> directives = new LinkedHashSet<String>();
+    for (Registration registration : modules.registrations) {
+      if (registration.type.equals("directive") && registration.name != null) {
+        directives.add(registration.name);
+      }
+    }
+
+    Map<String, String> table = new LinkedHashMap<String, String>();
+    for (String directive : directives) {
+      for (String name : getDenormalizedNames(directive)) {
+        table.put(name, directive);
+      }
+    }
+
+    if (reportOutput != null) {
+      reportOutput.println("directives: listed " + table.size() + " names for "
+          + directives.size() + " directives.");
+    }
+    if (table.isEmpty()) {
+      return;
+    }
+
+    StringBuilder entries = new StringBuilder();
+    for (Map.Entry<String, String> entry : table.entrySet()) {
+      entries.append(entries.length() > 0 ? ",\n" : "\n")
+          .append(AngularTemplates.quote(entry.getKey())).append(": ")
+          .append(AngularTemplates.quote(entry.getValue()));
+    }
+    String code = "window[" + AngularTemplates.quote(tableName) + "] = {"
+        + entries + "\n};\n";
+    SourceFile source = SourceFile.fromCode("NG_DIRECTIVE_TABLE", code);
+    Node tableScript = new JsAst(source).getAstRoot(compiler);
+    Node script = root.getLastChild();
+    while (tableScript.hasChildren()) {
+      Node statement = tableScript.removeFirstChild();
+      statement.useSourceInfoFromForTree(script);
+      script.addChildToBack(statement);
+    }
+    compiler.reportCodeChange();
+  }
+}
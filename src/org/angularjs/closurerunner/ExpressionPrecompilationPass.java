@@ -0,0 +1,300 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.Node;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles constant Angular expressions to JavaScript at build time. The
+ * expressions are collected from {@code $parse('...')} and
+ * {@code $watch('...')} calls and from templates registered with
+ * {@code $templateCache}. The generated getters (and setters, for assignable
+ * expressions) are exported on the global object in a table keyed by the
+ * expression text, which the runtime can consult before parsing.
+ *
+ * Filters aren't supported, and expressions using them are left to the
+ * runtime parser. The generated code follows the forgiving semantics of
+ * {@code $parse}, but doesn't repeat its runtime sandbox checks beyond
+ * refusing the blacklisted member names, since the expressions come from
+ * the application's own source.
+ */
+class ExpressionPrecompilationPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private String tableName;
+  private PrintStream reportOutput;
+  private Set<String> expressions;
+
+  static final Set<String> WATCH_METHODS = new HashSet<String>(
+      Arrays.asList("$watch", "$watchCollection"));
+
+  static final Set<String> UNSAFE_MEMBER_NAMES = new HashSet<String>(Arrays.asList(
+      "constructor", "__proto__", "__defineGetter__", "__defineSetter__",
+      "__lookupGetter__", "__lookupSetter__"));
+
+  // Runtime helpers shared by the generated functions. They match the
+  // undefined-tolerant behavior of $parse.
+  static final String HELPERS =
+      "function lookup(s, l, k) {\n"
+      + "  var o = l && l.hasOwnProperty(k) ? l : s;\n"
+      + "  return o == null ? undefined : o[k];\n"
+      + "}\n"
+      + "function get(o, k) { return o == null ? undefined : o[k]; }\n"
+      + "function call(o, f, a) { return f == null ? undefined : f.apply(o, a); }\n"
+      + "function invoke(o, k, a) { return call(o, get(o, k), a); }\n"
+      + "function assign(o, p, v) {\n"
+      + "  for (var i = 0; i < p.length - 1; i++) {\n"
+      + "    var n = o[p[i]];\n"
+      + "    if (!n) { n = o[p[i]] = {}; }\n"
+      + "    o = n;\n"
+      + "  }\n"
+      + "  return o[p[p.length - 1]] = v;\n"
+      + "}\n"
+      + "function plus(a, b) {\n"
+      + "  return typeof a === 'undefined' ? b : typeof b === 'undefined' ? a : a + b;\n"
+      + "}\n"
+      + "function minus(a, b) {\n"
+      + "  return (typeof a === 'undefined' ? 0 : a) - (typeof b === 'undefined' ? 0 : b);\n"
+      + "}\n";
+
+  public ExpressionPrecompilationPass(AbstractCompiler compiler, String tableName,
+                                      PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.tableName = tableName;
+    this.reportOutput = reportOutput;
+    expressions = new LinkedHashSet<String>();
+  }
+
+  private String compileList(List<NgExpression> expressions, int from) {
+    StringBuilder list = new StringBuilder();
+    for (int i = from; i < expressions.size(); i++) {
+      if (i > from) {
+        list.append(", ");
+      }
+      list.append(compile(expressions.get(i)));
+    }
+    return list.toString();
+  }
+
+  private String compileKey(NgExpression key) {
+    // Computed members are only supported with literal keys, so that they
+    // can be checked here instead of at runtime.
+    if (key.kind != NgExpression.Kind.LITERAL
+        || !(key.value instanceof String || key.value instanceof Double)) {
+      throw new IllegalArgumentException("Computed member");
+    }
+    return compileMemberName(key.value instanceof String ? (String) key.value
+        : compile(key));
+  }
+
+  private String compileMemberName(String name) {
+    if (UNSAFE_MEMBER_NAMES.contains(name)) {
+      throw new IllegalArgumentException("Unsafe member name " + name);
+    }
+    return AngularTemplates.quote(name);
+  }
+
+  /**
+   * Returns the static property path of an assignable expression, as a
+   * JavaScript array literal.
+   */
+  private String compilePath(NgExpression expression) {
+    List<String> path = new ArrayList<String>();
+    NgExpression current = expression;
+    while (current.kind != NgExpression.Kind.NAME) {
+      if (current.kind == NgExpression.Kind.MEMBER) {
+        path.add(0, compileMemberName(current.name));
+      } else if (current.kind == NgExpression.Kind.INDEX) {
+        path.add(0, compileKey(current.getChild(1)));
+      } else {
+        throw new IllegalArgumentException("Expression is not assignable");
+      }
+      current = current.getChild(0);
+    }
+    path.add(0, compileMemberName(current.name));
+    StringBuilder array = new StringBuilder("[");
+    for (int i = 0; i < path.size(); i++) {
+      array.append(i > 0 ? ", " : "").append(path.get(i));
+    }
+    return array.append("]").toString();
+  }
+
+  private String compileLiteral(NgExpression expression) {
+    if (expression.value instanceof String) {
+      return AngularTemplates.quote((String) expression.value);
+    }
+    if (expression.value instanceof Double) {
+      double number = (Double) expression.value;
+      if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+        return Long.toString((long) number);
+      }
+      return Double.toString(number);
+    }
+    if (expression.name.equals("undefined")) {
+      return "undefined";
+    }
+    return String.valueOf(expression.value);
+  }
+
+  /**
+   * Compiles an expression to JavaScript that evaluates it with the scope in
+   * 's' and the locals in 'l'. Throws {@link IllegalArgumentException} for
+   * expressions that can't be compiled.
+   */
+  String compile(NgExpression expression) {
+    switch (expression.kind) {
+      case STATEMENTS:
+        return "(" + compileList(expression.children, 0) + ")";
+      case FILTER:
+        throw new IllegalArgumentException("Filters are not supported");
+      case ASSIGN:
+        return "assign(s, " + compilePath(expression.getChild(0)) + ", "
+            + compile(expression.getChild(1)) + ")";
+      case TERNARY:
+        return "(" + compile(expression.getChild(0)) + " ? " + compile(expression.getChild(1))
+            + " : " + compile(expression.getChild(2)) + ")";
+      case BINARY:
+        if (expression.name.equals("+")) {
+          return "plus(" + compileList(expression.children, 0) + ")";
+        }
+        if (expression.name.equals("-")) {
+          return "minus(" + compileList(expression.children, 0) + ")";
+        }
+        return "(" + compile(expression.getChild(0)) + " " + expression.name + " "
+            + compile(expression.getChild(1)) + ")";
+      case UNARY:
+        if (expression.name.equals("-")) {
+          return "minus(0, " + compile(expression.getChild(0)) + ")";
+        }
+        if (expression.name.equals("+")) {
+          // $parse evaluates +x as 0 + x, which concatenates strings.
+          return "plus(0, " + compile(expression.getChild(0)) + ")";
+        }
+        return "!" + compile(expression.getChild(0));
+      case LITERAL:
+        return compileLiteral(expression);
+      case NAME:
+        return "lookup(s, l, " + compileMemberName(expression.name) + ")";
+      case MEMBER:
+        return "get(" + compile(expression.getChild(0)) + ", "
+            + compileMemberName(expression.name) + ")";
+      case INDEX:
+        return "get(" + compile(expression.getChild(0)) + ", "
+            + compileKey(expression.getChild(1)) + ")";
+      case CALL: {
+        NgExpression callee = expression.getChild(0);
+        String args = "[" + compileList(expression.children, 1) + "]";
+        if (callee.kind == NgExpression.Kind.MEMBER) {
+          return "invoke(" + compile(callee.getChild(0)) + ", "
+              + compileMemberName(callee.name) + ", " + args + ")";
+        }
+        if (callee.kind == NgExpression.Kind.INDEX) {
+          return "invoke(" + compile(callee.getChild(0)) + ", "
+              + compileKey(callee.getChild(1)) + ", " + args + ")";
+        }
+        return "call(s, " + compile(callee) + ", " + args + ")";
+      }
+      case ARRAY:
+        return "[" + compileList(expression.children, 0) + "]";
+      case OBJECT: {
+        StringBuilder object = new StringBuilder("{");
+        for (int i = 0; i < expression.keys.size(); i++) {
+          object.append(i > 0 ? ", " : "")
+              .append(AngularTemplates.quote(expression.keys.get(i))).append(": ")
+              .append(compile(expression.getChild(i)));
+        }
+        return object.append("}").toString();
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported expression");
+    }
+  }
+
+  /**
+   * Returns the table entry for an expression, or null if it can't be
+   * compiled.
+   */
+  String compileEntry(String text) {
+    try {
+      NgExpression expression = NgExpression.parse(text);
+      StringBuilder entry = new StringBuilder("{'get': function (s, l) { return ")
+          .append(compile(expression)).append("; }");
+      if (expression.kind == NgExpression.Kind.NAME
+          || expression.kind == NgExpression.Kind.MEMBER
+          || expression.kind == NgExpression.Kind.INDEX) {
+        entry.append(", 'set': function (s, v) { return assign(s, ")
+            .append(compilePath(expression)).append(", v); }");
+      }
+      return entry.append("}").toString();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    NodeTraversal.traverse(compiler, root, this);
+
+    StringBuilder table = new StringBuilder();
+    int compiled = 0;
+    for (String expression : expressions) {
+      String entry = compileEntry(expression);
+      if (entry != null) {
+        table.append(compiled > 0 ? ",\n" : "\n")
+            .append(AngularTemplates.quote(expression)).append(": ").append(entry);
+        compiled++;
+      }
+    }
+
+    if (reportOutput != null) {
+      reportOutput.println("expressions: precompiled " + compiled + " of "
+          + expressions.size() + " expressions.");
+    }
+    if (compiled == 0) {
+      return;
+    }
+
+    String code = "(function () {\n" + HELPERS
+        + "window[" + AngularTemplates.quote(tableName) + "] = {" + table + "\n};\n"
+        + "})();\n";
+    SourceFile source = SourceFile.fromCode("NG_EXPRESSION_TABLE", code);
+    Node tableScript = new JsAst(source).getAstRoot(compiler);
+    Node script = root.getLastChild();
+    while (tableScript.hasChildren()) {
+      Node statement = tableScript.removeFirstChild();
+      statement.useSourceInfoFromForTree(script);
+      script.addChildToBack(statement);
+    }
+    compiler.reportCodeChange();
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (!n.isCall() || n.getChildCount() < 2 || !n.getChildAtIndex(1).isString()) {
+      return;
+    }
+    Node target = n.getFirstChild();
+    if (AngularTemplates.isTemplateCachePut(n)) {
+      expressions.addAll(AngularTemplates.extractExpressions(AngularTemplates.getTemplateHtml(n)));
+    } else if (target.isName() && target.getString().equals("$parse")) {
+      // $parse('expression')
+      expressions.add(n.getChildAtIndex(1).getString());
+    } else if (target.isGetProp() && WATCH_METHODS.contains(target.getLastChild().getString())) {
+      // scope.$watch('expression', ...)
+      expressions.add(n.getChildAtIndex(1).getString());
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.Node;
+
+import java.io.PrintStream;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Declares the property names that templates and expression strings use as
+ * externs, so that ADVANCED compilation doesn't rename the scope and model
+ * properties they read, e.g. for
+ * $templateCache.put('user.html', '{{user.fullName}}');
+ * the externs get
+ * var angularExpressionProperties;
+ * angularExpressionProperties.fullName;
+ * angularExpressionProperties.user;
+ *
+ * Expressions come from templates registered with {@code $templateCache} or
+ * inline in template properties, including ng-repeat and ng-controller
+ * values, and from strings passed to $parse, $eval, $evalAsync, $apply and
+ * the watch methods. Scope variables, members, object literal keys and
+ * constant index keys are declared. If an expression can't be parsed, every
+ * identifier in it is declared.
+ *
+ * The declarations are added to the externs before optimizations, where
+ * property renaming reads them, and can also be written to a file to pass
+ * to other builds with --externs.
+ */
+class ExternsGenerationPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream externsOutput;
+  private PrintStream reportOutput;
+  private Set<String> expressions;
+
+  static final String EXTERNS_NAME = "angularExpressionProperties";
+
+  static final Set<String> EXPRESSION_METHODS = new HashSet<String>(Arrays.asList(
+      "$apply", "$eval", "$evalAsync", "$watch", "$watchCollection"));
+
+  static final Pattern IDENTIFIER_REGEX = Pattern.compile("[A-Za-z_$][\\w$]*");
+  static final Pattern QUOTED_REGEX =
+      Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+  // item in items | filter:x track by item.id, or (key, value) in object
+  static final Pattern REPEAT_REGEX = Pattern.compile(
+      "^\\s*([\\s\\S]+?)\\s+in\\s+([\\s\\S]+?)(?:\\s+track\\s+by\\s+([\\s\\S]+?))?\\s*$");
+  // MainController as main
+  static final Pattern CONTROLLER_AS_REGEX =
+      Pattern.compile("^\\s*[\\w$.]+\\s+as\\s+([\\w$]+)\\s*$");
+
+  public ExternsGenerationPass(AbstractCompiler compiler, PrintStream externsOutput,
+                               PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.externsOutput = externsOutput;
+    this.reportOutput = reportOutput;
+  }
+
+  private static void collectProperties(NgExpression expression, Set<String> properties) {
+    switch (expression.kind) {
+      case NAME:
+      case MEMBER:
+        properties.add(expression.name);
+        break;
+      case OBJECT:
+        properties.addAll(expression.keys);
+        break;
+      case INDEX:
+        NgExpression key = expression.getChild(1);
+        if (key.kind == NgExpression.Kind.LITERAL && key.value instanceof String) {
+          properties.add((String) key.value);
+        }
+        break;
+      default:
+        break;
+    }
+    for (NgExpression child : expression.children) {
+      collectProperties(child, properties);
+    }
+  }
+
+  /**
+   * Adds the property names an expression uses.
+   */
+  static void collectProperties(String text, Set<String> properties) {
+    try {
+      collectProperties(NgExpression.parse(text), properties);
+    } catch (IllegalArgumentException e) {
+      Matcher identifier = IDENTIFIER_REGEX.matcher(QUOTED_REGEX.matcher(text).replaceAll(" "));
+      while (identifier.find()) {
+        if (!NgExpression.CONSTANTS.contains(identifier.group())) {
+          properties.add(identifier.group());
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the expressions of a template, including the parts of the
+   * microsyntax in ng-repeat and ng-controller.
+   */
+  private void addTemplate(String html) {
+    expressions.addAll(AngularTemplates.extractExpressions(html));
+    Matcher tag = AngularTemplates.TAG_REGEX.matcher(html);
+    while (tag.find()) {
+      Matcher attribute = AngularTemplates.ATTRIBUTE_REGEX.matcher(tag.group(2));
+      while (attribute.find()) {
+        String name = AngularTemplates.normalizeDirectiveName(attribute.group(1));
+        String value = AngularTemplates.unescapeHtml(
+            attribute.group(2) != null ? attribute.group(2) : attribute.group(3));
+        Matcher repeat = REPEAT_REGEX.matcher(value);
+        Matcher controllerAs = CONTROLLER_AS_REGEX.matcher(value);
+        if ((name.equals("ngRepeat") || name.equals("ngRepeatStart")) && repeat.matches()) {
+          expressions.add(repeat.group(1).replaceAll("[()]", "").replace(',', ';'));
+          expressions.add(repeat.group(2));
+          if (repeat.group(3) != null) {
+            expressions.add(repeat.group(3));
+          }
+        } else if (name.equals("ngController") && controllerAs.matches()) {
+          expressions.add(controllerAs.group(1));
+        }
+      }
+    }
+  }
+
+  static String createExterns(Set<String> properties) {
+    StringBuilder externs = new StringBuilder("/** @type {?} */\nvar " + EXTERNS_NAME + ";\n");
+    for (String property : properties) {
+      externs.append(EXTERNS_NAME).append(".").append(property).append(";\n");
+    }
+    return externs.toString();
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    expressions = new LinkedHashSet<String>();
+    NodeTraversal.traverse(compiler, root, this);
+
+    Set<String> properties = new TreeSet<String>();
+    for (String expression : expressions) {
+      collectProperties(expression, properties);
+    }
+    for (String property : new TreeSet<String>(properties)) {
+      if (!IDENTIFIER_REGEX.matcher(property).matches()) {
+        // Not a valid property name in dotted form, and not renamed either.
+        properties.remove(property);
+      }
+    }
+
+    String code = createExterns(properties);
+    if (externsOutput != null) {
+      externsOutput.print(code);
+    }
+    if (reportOutput != null) {
+      reportOutput.println("externs: declared " + properties.size() + " properties from "
+          + expressions.size() + " expressions.");
+    }
+    if (properties.isEmpty() || !externs.hasChildren()) {
+      return;
+    }
+    Node generated = new JsAst(SourceFile.fromCode("NG_EXTERNS", code)).getAstRoot(compiler);
+    Node script = externs.getLastChild();
+    while (generated.hasChildren()) {
+      Node statement = generated.removeFirstChild();
+      statement.useSourceInfoFromForTree(script);
+      script.addChildToBack(statement);
+    }
+    compiler.reportCodeChange();
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (AngularTemplates.isTemplateCachePut(n)) {
+      addTemplate(AngularTemplates.getTemplateHtml(n));
+    } else if (n.isStringKey() && n.getString().equals("template")
+        && n.getFirstChild().isString()) {
+      addTemplate(n.getFirstChild().getString());
+    } else if (n.isCall() && n.getChildCount() >= 2 && n.getChildAtIndex(1).isString()) {
+      Node target = n.getFirstChild();
+      String method = target.isName() ? target.getString()
+          : target.isGetProp() ? target.getLastChild().getString() : null;
+      if ("$parse".equals(method) || EXPRESSION_METHODS.contains(method)) {
+        // $parse('expression'), scope.$watch('expression', ...)
+        expressions.add(n.getChildAtIndex(1).getString());
+      }
+    } else if (n.isArrayLit() && parent.isCall() && parent.getChildAtIndex(1) == n
+        && parent.getFirstChild().isGetProp()
+        && parent.getFirstChild().getLastChild().getString().equals("$watchGroup")) {
+      // scope.$watchGroup(['a', 'b'], listener)
+      expressions.addAll(AngularModules.getStrings(n));
+    }
+  }
+}
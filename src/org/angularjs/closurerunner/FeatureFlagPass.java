@@ -0,0 +1,135 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.DiagnosticType;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+
+import java.io.PrintStream;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces reads of feature flags with constant values, so that the branches
+ * they disable are removed by Closure's dead code elimination, e.g. with
+ * debugInfoEnabled=false
+ * if (debugInfoEnabled) { element.addClass('ng-scope'); }
+ * becomes
+ * if (false) { element.addClass('ng-scope'); }
+ *
+ * Flags are variables or qualified names. Unlike Closure's --define, they
+ * don't need a @define annotation. Variables declared with var are replaced
+ * in any scope, but parameters and function names that shadow a flag aren't.
+ * Assignments to a flag are left in place and reported, as the value read is
+ * fixed at build time.
+ */
+class FeatureFlagPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private Map<String, String> flags;
+  private Map<String, Node> values;
+  private PrintStream reportOutput;
+  private int replaced;
+  private Set<String> replacedFlags;
+
+  static final DiagnosticType FLAG_ASSIGNMENT_WARNING =
+      DiagnosticType.warning("JSC_NG_FLAG_ASSIGNMENT_WARNING",
+          "Feature flag {0} is assigned, but reads of it are replaced with {1}.");
+
+  public FeatureFlagPass(AbstractCompiler compiler, Map<String, String> flags,
+                         PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.flags = flags;
+    values = new HashMap<String, Node>();
+    for (Map.Entry<String, String> flag : flags.entrySet()) {
+      values.put(flag.getKey(), createValue(flag.getValue()));
+    }
+    this.reportOutput = reportOutput;
+  }
+
+  /**
+   * Converts the value given on the command line to a literal: true, false,
+   * null, undefined, a number, or a string, with or without quotes.
+   */
+  static Node createValue(String value) {
+    if (value.equals("true")) {
+      return IR.trueNode();
+    }
+    if (value.equals("false")) {
+      return IR.falseNode();
+    }
+    if (value.equals("null")) {
+      return IR.nullNode();
+    }
+    if (value.equals("undefined")) {
+      return IR.voidNode(IR.number(0));
+    }
+    if (value.length() >= 2 && (value.startsWith("'") && value.endsWith("'")
+        || value.startsWith("\"") && value.endsWith("\""))) {
+      return IR.string(value.substring(1, value.length() - 1));
+    }
+    try {
+      return IR.number(Double.parseDouble(value));
+    } catch (NumberFormatException e) {
+      return IR.string(value);
+    }
+  }
+
+  private boolean isShadowed(NodeTraversal t, Node name) {
+    Scope.Var var = t.getScope().getVar(name.getString());
+    return var != null && !var.getParentNode().isVar();
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    replaced = 0;
+    replacedFlags = new HashSet<String>();
+    NodeTraversal.traverse(compiler, root, this);
+    if (replaced > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("defines: replaced " + replaced + " references to "
+          + replacedFlags.size() + " flags.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (!(n.isName() || n.isGetProp()) || !n.isQualifiedName()
+        || !flags.containsKey(n.getQualifiedName())) {
+      return;
+    }
+    String flag = n.getQualifiedName();
+    Node value = values.get(flag);
+    if (parent.isGetProp() || parent.isFunction() || parent.isParamList()
+        || parent.isCatch() || (n.isName() && isShadowed(t, n))) {
+      return;
+    }
+    if (parent.isVar()) {
+      // var debugInfoEnabled = true;
+      Node initialValue = n.getFirstChild();
+      if (initialValue != null && CallStrippingPass.isSideEffectFree(initialValue)) {
+        n.replaceChild(initialValue, value.cloneTree().useSourceInfoFromForTree(initialValue));
+        replaced++;
+        replacedFlags.add(flag);
+      }
+      return;
+    }
+    if (parent.isInc() || parent.isDec()
+        || (CallStrippingPass.isAssignmentOp(parent) && parent.getFirstChild() == n)) {
+      compiler.report(t.makeError(n, FLAG_ASSIGNMENT_WARNING, flag, flags.get(flag)));
+      return;
+    }
+    parent.replaceChild(n, value.cloneTree().useSourceInfoFromForTree(n));
+    replaced++;
+    replacedFlags.add(flag);
+  }
+}
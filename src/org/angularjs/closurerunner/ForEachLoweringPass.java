@@ -0,0 +1,362 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.JSDocInfo;
+import com.google.javascript.rhino.JSTypeExpression;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites {@code angular.forEach} and {@code forEach} statements with an
+ * inline callback into plain loops, e.g.
+ * forEach(list, function (item, i) { total += item; });
+ * to
+ * var list$0 = list, length = list$0.length;
+ * for (var index = 0; index < length; index++) {
+ *   if (index in list$0) { var item = list$0[index], i = index; total += item; }
+ * }
+ *
+ * A bare forEach is only lowered if it is a global or Angular's own, i.e. a
+ * function declaration at the top level of the script or of the function
+ * that wraps angular.js, and not a local variable or parameter.
+ *
+ * Arrays are lowered when the collection is an array literal or a variable
+ * or parameter whose declared type is !Array. Object literals become a for-in
+ * loop with an own-property check, as in angular.forEach.
+ *
+ * The callback can't use this, arguments or inner functions, and can't
+ * return a value. A bare return becomes a labeled continue. The callback's
+ * parameters and variables keep their names unless they are used outside
+ * the callback, in which case they are renamed.
+ */
+class ForEachLoweringPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Set<String> usedNames;
+  private Map<String, Integer> nameCounts;
+  private Map<Node, Boolean> candidates;
+
+  public ForEachLoweringPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  private String createUniqueName(String base) {
+    String name = base;
+    for (int i = 0; usedNames.contains(name); i++) {
+      name = base + "$" + i;
+    }
+    usedNames.add(name);
+    nameCounts.put(name, -1);
+    return name;
+  }
+
+  /**
+   * True for statements of the form
+   * angular.forEach(collection, function (value, key) {...});
+   */
+  static boolean isForEachStatement(Node ast) {
+    if (!ast.isExprResult() || !ast.getFirstChild().isCall()) {
+      return false;
+    }
+    Node call = ast.getFirstChild();
+    Node callee = call.getFirstChild();
+    if (!callee.isQualifiedName() || !(callee.getQualifiedName().equals("forEach")
+        || callee.getQualifiedName().equals("angular.forEach"))) {
+      return false;
+    }
+    if (call.getChildCount() != 3 && call.getChildCount() != 4) {
+      return false;
+    }
+    Node callback = call.getChildAtIndex(2);
+    return callback.isFunction() && callback.getChildAtIndex(1).getChildCount() <= 2
+        && (call.getChildCount() == 3 || CallStrippingPass.isSideEffectFree(call.getLastChild()));
+  }
+
+  private static boolean isArrayType(JSTypeExpression type) {
+    // A nullable Array may be null, which angular.forEach ignores but the
+    // loop can't read the length of.
+    Node root = type.getRoot();
+    return root.getType() == Token.BANG && root.getFirstChild().isString()
+        && root.getFirstChild().getString().equals("Array");
+  }
+
+  private static JSDocInfo getFunctionJSDoc(Node function) {
+    if (function.getJSDocInfo() != null) {
+      return function.getJSDocInfo();
+    }
+    Node parent = function.getParent();
+    if (parent.isName() && parent.getParent().isVar()) {
+      return parent.getParent().getJSDocInfo();
+    }
+    return parent.isAssign() || parent.isStringKey() ? parent.getJSDocInfo() : null;
+  }
+
+  /**
+   * True for a top-level immediately invoked function, like the one that
+   * wraps angular.js.
+   */
+  private static boolean isTopLevelWrapper(Node function) {
+    Node call = function.getParent();
+    return call.isCall() && call.getFirstChild() == function
+        && call.getParent().isExprResult() && call.getParent().getParent().isScript();
+  }
+
+  /**
+   * True if a bare forEach refers to a global or to Angular's internal
+   * function rather than to a local definition.
+   */
+  private static boolean isAngularForEach(NodeTraversal t, Node callee) {
+    if (!callee.isName()) {
+      // angular.forEach
+      return true;
+    }
+    Scope.Var var = t.getScope().getVar(callee.getString());
+    if (var == null || var.getParentNode() == null) {
+      return true;
+    }
+    // function forEach(obj, iterator, context) {...}
+    Node declaration = var.getParentNode();
+    if (!declaration.isFunction()) {
+      return false;
+    }
+    Node block = declaration.getParent();
+    return block.isScript()
+        || (block.isBlock() && block.getParent().isFunction()
+            && isTopLevelWrapper(block.getParent()));
+  }
+
+  /**
+   * True if a variable is declared with a non-nullable Array type, either in its own
+   * JSDoc or, for parameters, in the function's.
+   */
+  private boolean isDeclaredArray(NodeTraversal t, Node name) {
+    Scope.Var var = t.getScope().getVar(name.getString());
+    if (var == null || var.getParentNode() == null) {
+      return false;
+    }
+    if (var.getParentNode().isParamList()) {
+      JSDocInfo info = getFunctionJSDoc(var.getParentNode().getParent());
+      JSTypeExpression type = info != null ? info.getParameterType(name.getString()) : null;
+      return type != null && isArrayType(type);
+    }
+    JSDocInfo info = var.getJSDocInfo();
+    return info != null && info.hasType() && isArrayType(info.getType());
+  }
+
+  /**
+   * Checks that a callback can be inlined and collects the variables it
+   * declares and the return statements to replace.
+   */
+  private boolean canInline(Node ast, Set<String> vars, List<Node> returns) {
+    if (ast.isThis() || ast.isFunction()
+        || (ast.isName() && ast.getString().equals("arguments"))
+        || (ast.isReturn() && ast.hasChildren())) {
+      return false;
+    }
+    if (ast.isName() && ast.getParent().isVar()) {
+      vars.add(ast.getString());
+    }
+    if (ast.isReturn()) {
+      returns.add(ast);
+    }
+    for (Node child : ast.children()) {
+      if (!canInline(child, vars, returns)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int countNames(Node ast, String name) {
+    int count = ast.isName() && ast.getString().equals(name) ? 1 : 0;
+    for (Node child : ast.children()) {
+      count += countNames(child, name);
+    }
+    return count;
+  }
+
+  /**
+   * Returns a name for a parameter or variable of the callback, keeping its
+   * own name if nothing outside the callback uses it.
+   */
+  private String createLocalName(Node callback, String name) {
+    if (!usedNames.contains(name) || nameCounts.get(name) != countNames(callback, name)) {
+      return createUniqueName(name);
+    }
+    // Claim the name, so that enclosing callbacks rename theirs.
+    nameCounts.put(name, -1);
+    return name;
+  }
+
+  private static void rename(Node ast, Map<String, String> names) {
+    if (ast.isName() && names.containsKey(ast.getString())) {
+      ast.setString(names.get(ast.getString()));
+    }
+    for (Node child : ast.children()) {
+      rename(child, names);
+    }
+  }
+
+  private Node parse(String code) {
+    return new JsAst(SourceFile.fromCode("NG_FOR_EACH", code)).getAstRoot(compiler);
+  }
+
+  private boolean lower(Node statement, boolean isArray) {
+    Node statementParent = statement.getParent();
+    if (!statementParent.isBlock() && !statementParent.isScript()) {
+      return false;
+    }
+    Node call = statement.getFirstChild();
+    Node collection = call.getChildAtIndex(1);
+    Node callback = call.getChildAtIndex(2);
+    Node body = callback.getLastChild();
+    Set<String> vars = new LinkedHashSet<String>();
+    List<Node> returns = new ArrayList<Node>();
+    for (Node child : body.children()) {
+      if (!canInline(child, vars, returns)) {
+        return false;
+      }
+    }
+
+    Node params = callback.getChildAtIndex(1);
+    Map<String, String> names = new HashMap<String, String>();
+    for (Node param : params.children()) {
+      names.put(param.getString(), createLocalName(callback, param.getString()));
+    }
+    List<String> locals = new ArrayList<String>();
+    for (String var : vars) {
+      if (!names.containsKey(var)) {
+        names.put(var, createLocalName(callback, var));
+        // Variables start out undefined in every call of the callback.
+        locals.add(names.get(var) + " = void 0");
+      }
+    }
+    rename(body, names);
+    String valueName = params.hasChildren() ? names.get(params.getFirstChild().getString()) : null;
+    String keyName = params.getChildCount() == 2 ? names.get(params.getLastChild().getString())
+        : null;
+
+    String collectionName = createUniqueName(
+        collection.isName() ? collection.getString() : "collection");
+    String indexName = isArray || keyName == null
+        ? createUniqueName(isArray ? "index" : "key") : keyName;
+    String labelName = returns.isEmpty() ? null : createUniqueName("each");
+    if (isArray && keyName != null) {
+      locals.add(0, keyName + " = " + indexName);
+    }
+    if (valueName != null) {
+      locals.add(0, valueName + " = " + collectionName + "[" + indexName + "]");
+    }
+    String declarations = locals.isEmpty() ? "" : "var " + join(locals) + ";";
+    String label = labelName == null ? "" : labelName + ": ";
+
+    String code;
+    if (isArray) {
+      String lengthName = createUniqueName("length");
+      code = "var " + collectionName + " = 0, " + lengthName + " = " + collectionName
+          + ".length;\n"
+          + label + "for (var " + indexName + " = 0; " + indexName + " < " + lengthName + "; "
+          + indexName + "++) {\n"
+          + "  if (" + indexName + " in " + collectionName + ") {" + declarations + "}\n"
+          + "}\n";
+    } else {
+      code = "var " + collectionName + " = 0;\n"
+          + label + "for (var " + indexName + " in " + collectionName + ") {\n"
+          + "  if (" + collectionName + ".hasOwnProperty(" + indexName + ")) {"
+          + declarations + "}\n"
+          + "}\n";
+    }
+
+    Node loop = parse(code);
+    Node declaration = loop.getFirstChild();
+    declaration.getFirstChild().replaceChild(declaration.getFirstChild().getFirstChild(),
+        collection.detachFromParent());
+    Node forNode = declaration.getNext().isLabel()
+        ? declaration.getNext().getLastChild() : declaration.getNext();
+    Node innerBlock = forNode.getLastChild().getFirstChild().getLastChild();
+    for (Node ret : returns) {
+      ret.getParent().replaceChild(ret, IR.continueNode(IR.labelName(labelName)).srcref(ret));
+    }
+    while (body.hasChildren()) {
+      innerBlock.addChildToBack(body.removeFirstChild());
+    }
+
+    while (loop.hasChildren()) {
+      Node child = loop.removeFirstChild();
+      child.useSourceInfoIfMissingFromForTree(statement);
+      statementParent.addChildBefore(child, statement);
+    }
+    statementParent.removeChild(statement);
+    return true;
+  }
+
+  private static String join(List<String> parts) {
+    StringBuilder joined = new StringBuilder();
+    for (String part : parts) {
+      joined.append(joined.length() > 0 ? ", " : "").append(part);
+    }
+    return joined.toString();
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    usedNames = new HashSet<String>();
+    nameCounts = new HashMap<String, Integer>();
+    candidates = new LinkedHashMap<Node, Boolean>();
+    NodeTraversal.traverse(compiler, root, this);
+
+    // Candidates are in post order, so inner loops are lowered first and
+    // no longer stop their enclosing callback from being inlined.
+    int lowered = 0;
+    for (Map.Entry<Node, Boolean> candidate : candidates.entrySet()) {
+      if (lower(candidate.getKey(), candidate.getValue())) {
+        lowered++;
+      }
+    }
+    if (lowered > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("forEach: lowered " + lowered + " of " + candidates.size()
+          + " calls to loops.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isName()) {
+      usedNames.add(n.getString());
+      Integer count = nameCounts.get(n.getString());
+      nameCounts.put(n.getString(), count == null ? 1 : count + 1);
+    }
+    if (!isForEachStatement(n) || !isAngularForEach(t, n.getFirstChild().getFirstChild())) {
+      return;
+    }
+    Node collection = n.getFirstChild().getChildAtIndex(1);
+    if (collection.isArrayLit() || (collection.isName() && isDeclaredArray(t, collection))) {
+      candidates.put(n, true);
+    } else if (collection.isObjectLit()) {
+      candidates.put(n, false);
+    }
+  }
+}
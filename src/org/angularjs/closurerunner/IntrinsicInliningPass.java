@@ -0,0 +1,212 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.Token;
+
+import java.io.PrintStream;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces calls to Angular's type predicates and trivial helpers with the
+ * expressions they compute, e.g.
+ * isString(value)
+ * to
+ * typeof value === 'string'
+ *
+ * Calls to a helper declared in the compiled code are only replaced if its
+ * body is one of the known implementations. Calls on the angular global are
+ * replaced when angular isn't declared in the compiled code, i.e. it is the
+ * library's public API.
+ */
+class IntrinsicInliningPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Map<Node, Boolean> verifiedDeclarations;
+  private Map<String, Integer> inlinedCalls;
+  private int addedBytes;
+
+  // The accepted bodies of each helper, with V standing for the parameter.
+  static final Map<String, List<String>> INTRINSICS = new LinkedHashMap<String, List<String>>();
+  static {
+    INTRINSICS.put("isString", typeofBodies("string", "=="));
+    INTRINSICS.put("isFunction", typeofBodies("function", "=="));
+    INTRINSICS.put("isNumber", typeofBodies("number", "=="));
+    INTRINSICS.put("isUndefined", typeofBodies("undefined", "=="));
+    INTRINSICS.put("isDefined", typeofBodies("undefined", "!="));
+    INTRINSICS.put("isObject", Arrays.asList(
+        "return V !== null && typeof V === 'object';",
+        "return V != null && typeof V == 'object';"));
+    INTRINSICS.put("noop", Arrays.asList(""));
+    INTRINSICS.put("identity", Arrays.asList("return V;"));
+  }
+
+  private static List<String> typeofBodies(String type, String operator) {
+    return Arrays.asList(
+        "return typeof V " + operator + "= '" + type + "';",
+        "return typeof V " + operator + " '" + type + "';");
+  }
+
+  public IntrinsicInliningPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  private Node parse(String code) {
+    return new JsAst(SourceFile.fromCode("NG_INTRINSIC", code)).getAstRoot(compiler);
+  }
+
+  /**
+   * True if a function declares a helper the way the intrinsic table expects.
+   */
+  private boolean isKnownImplementation(String name, Node function) {
+    Node params = function.getChildAtIndex(1);
+    if (params.getChildCount() > 1) {
+      return false;
+    }
+    String param = params.hasChildren() ? params.getFirstChild().getString() : "V";
+    for (String body : INTRINSICS.get(name)) {
+      Node expected = parse("function f(" + param + ") {" + body.replace("V", param) + "}")
+          .getFirstChild();
+      if (expected.getLastChild().isEquivalentTo(function.getLastChild())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Node getDeclaredFunction(Scope.Var var) {
+    Node nameNode = var.getNameNode();
+    if (nameNode.getParent().isFunction()) {
+      return nameNode.getParent();
+    }
+    Node value = nameNode.getFirstChild();
+    return value != null && value.isFunction() ? value : null;
+  }
+
+  /**
+   * Returns the helper a call's callee refers to, or null if it isn't one
+   * that can be inlined.
+   */
+  private String getIntrinsic(NodeTraversal t, Node callee) {
+    if (callee.isGetProp() && callee.getFirstChild().isName()
+        && callee.getFirstChild().getString().equals("angular")) {
+      Scope.Var angular = t.getScope().getVar("angular");
+      String name = callee.getLastChild().getString();
+      boolean isApi = angular == null || angular.getNameNode().isFromExterns();
+      return isApi && INTRINSICS.containsKey(name) ? name : null;
+    }
+    if (!callee.isName() || !INTRINSICS.containsKey(callee.getString())) {
+      return null;
+    }
+    Scope.Var var = t.getScope().getVar(callee.getString());
+    Node function = var != null ? getDeclaredFunction(var) : null;
+    if (function == null) {
+      return null;
+    }
+    if (!verifiedDeclarations.containsKey(function)) {
+      verifiedDeclarations.put(function, isKnownImplementation(callee.getString(), function));
+    }
+    return verifiedDeclarations.get(function) ? callee.getString() : null;
+  }
+
+  private static Node typeofCheck(Node value, String type, boolean equal) {
+    return new Node(equal ? Token.SHEQ : Token.SHNE, new Node(Token.TYPEOF, value),
+        IR.string(type));
+  }
+
+  /**
+   * Returns the expression to replace a call with, or null if the arguments
+   * don't allow it.
+   */
+  private static Node createReplacement(String name, Node call) {
+    Node arg = call.getChildAtIndex(1);
+    if (name.equals("noop")) {
+      for (Node child = arg; child != null; child = child.getNext()) {
+        if (!CallStrippingPass.isSideEffectFree(child)) {
+          return null;
+        }
+      }
+      return IR.voidNode(IR.number(0));
+    }
+    if (call.getChildCount() != 2) {
+      return null;
+    }
+    if (name.equals("identity")) {
+      // identity(obj.method)() would call the method on obj.
+      Node parent = call.getParent();
+      return parent.isCall() && parent.getFirstChild() == call && !arg.isName()
+          ? null : arg.detachFromParent();
+    }
+    if (name.equals("isObject") && !arg.isName()) {
+      // The value is used twice.
+      return null;
+    }
+    arg.detachFromParent();
+    if (name.equals("isObject")) {
+      return IR.and(new Node(Token.SHNE, arg.cloneTree(), IR.nullNode()),
+          typeofCheck(arg, "object", true));
+    } else if (name.equals("isDefined")) {
+      return typeofCheck(arg, "undefined", false);
+    }
+    return typeofCheck(arg, name.substring(2).toLowerCase(), true);
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    verifiedDeclarations = new HashMap<Node, Boolean>();
+    inlinedCalls = new LinkedHashMap<String, Integer>();
+    addedBytes = 0;
+    NodeTraversal.traverse(compiler, root, this);
+
+    int total = 0;
+    StringBuilder counts = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : inlinedCalls.entrySet()) {
+      total += entry.getValue();
+      counts.append(counts.length() > 0 ? ", " : "").append(entry.getKey()).append(": ")
+          .append(entry.getValue());
+    }
+    if (total > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("intrinsics: inlined " + total + " calls"
+          + (total > 0 ? " (" + counts + ")" : "") + ", changing the size by about "
+          + (addedBytes > 0 ? "+" : "") + addedBytes + " bytes.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (!n.isCall()) {
+      return;
+    }
+    String name = getIntrinsic(t, n.getFirstChild());
+    if (name == null) {
+      return;
+    }
+    int size = CodeSizeEstimator.estimateSize(n);
+    Node replacement = createReplacement(name, n);
+    if (replacement == null) {
+      return;
+    }
+    replacement.useSourceInfoIfMissingFromForTree(n);
+    parent.replaceChild(n, replacement);
+    addedBytes += CodeSizeEstimator.estimateSize(replacement) - size;
+    Integer count = inlinedCalls.get(name);
+    inlinedCalls.put(name, count == null ? 1 : count + 1);
+  }
+}
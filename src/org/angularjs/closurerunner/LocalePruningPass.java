@@ -0,0 +1,311 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.Node;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Removes the parts of {@code $locale} definitions that nothing uses. A
+ * definition is an object literal with an id and DATETIME_FORMATS or
+ * NUMBER_FORMATS, as in the ngLocale files and $LocaleProvider.
+ *
+ * If locales are required, the {@code $provide.value('$locale', {...})}
+ * registrations of the other locales are removed. In the remaining
+ * definitions, the DATETIME_FORMATS are kept if the date filter is used,
+ * except for named formats like 'shortDate' that don't appear in any string,
+ * the NUMBER_FORMATS if the number or currency filter is used, and pluralCat
+ * if ngPluralize is used. Filters and directives are found in templates and
+ * expressions, in $filter('name') calls and in injected 'nameFilter'
+ * dependencies. Fields read directly from {@code $locale} are kept, unless
+ * they are read by the built-in filters and ngPluralize themselves. No fields
+ * are removed if a templateUrl isn't put into {@code $templateCache}, as its
+ * template may use any filter.
+ *
+ * Markup outside the compiled code, like the host page index.html, isn't
+ * scanned. The filters and directives only it uses have to be given by name,
+ * e.g. 'date' or 'ngPluralize', so that their fields are kept.
+ */
+class LocalePruningPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private Set<String> locales;
+  private List<String> keptConsumers;
+  private PrintStream reportOutput;
+  private List<Node> definitions;
+  private Set<String> usedFilters;
+  private Set<String> usedDirectives;
+  private Set<String> usedFields;
+  private List<String> strings;
+  private Set<String> templateUrls;
+  private Set<String> cachedTemplates;
+
+  static final String DATETIME_FORMATS = "DATETIME_FORMATS";
+  static final String NUMBER_FORMATS = "NUMBER_FORMATS";
+  static final String PLURAL_CAT = "pluralCat";
+
+  static final Set<String> NAMED_DATE_FORMATS = new HashSet<String>(Arrays.asList(
+      "fullDate", "longDate", "medium", "mediumDate", "mediumTime", "short", "shortDate",
+      "shortTime"));
+
+  static final String DEFAULT_DATE_FORMAT = "mediumDate";
+
+  // The NUMBER_FORMATS each filter reads.
+  static final Map<String, Set<String>> NUMBER_FIELDS = new HashMap<String, Set<String>>();
+  static {
+    NUMBER_FIELDS.put("number", new HashSet<String>(Arrays.asList(
+        "DECIMAL_SEP", "GROUP_SEP", "PATTERNS")));
+    NUMBER_FIELDS.put("currency", new HashSet<String>(Arrays.asList(
+        "CURRENCY_SYM", "DECIMAL_SEP", "GROUP_SEP", "PATTERNS")));
+  }
+
+  // The built-in functions that read $locale on behalf of a filter or
+  // directive.
+  static final Set<String> CONSUMERS = new HashSet<String>(Arrays.asList(
+      "dateFilter", "numberFilter", "currencyFilter", "ngPluralizeDirective"));
+
+  public LocalePruningPass(AbstractCompiler compiler, List<String> locales,
+                           List<String> keptConsumers, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.locales = new HashSet<String>();
+    for (String locale : locales) {
+      this.locales.add(normalizeLocale(locale));
+    }
+    this.keptConsumers = keptConsumers;
+    this.reportOutput = reportOutput;
+  }
+
+  static String normalizeLocale(String locale) {
+    return locale.toLowerCase().replace('_', '-');
+  }
+
+  private static Node getKey(Node objectLit, String name) {
+    for (Node key : objectLit.children()) {
+      if (key.isStringKey() && key.getString().equals(name)) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isDefinition(Node ast) {
+    if (!ast.isObjectLit() || getKey(ast, "id") == null) {
+      return false;
+    }
+    return getKey(ast, DATETIME_FORMATS) != null || getKey(ast, NUMBER_FORMATS) != null;
+  }
+
+  private static String getFunctionName(Node function) {
+    String name = function.getFirstChild().getString();
+    Node parent = function.getParent();
+    if (name.isEmpty() && parent.isArrayLit()) {
+      // var ngPluralizeDirective = ['$locale', function ($locale) {...}];
+      parent = parent.getParent();
+    }
+    return name.isEmpty() && parent.isName() ? parent.getString() : name;
+  }
+
+  private static boolean isInConsumer(Node n) {
+    for (Node ancestor = n.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+      if (ancestor.isFunction() && CONSUMERS.contains(getFunctionName(ancestor))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records a read of $locale outside the built-in consumers: a field such
+   * as 'NUMBER_FORMATS.DECIMAL_SEP', a whole group, or '*' for the whole
+   * object.
+   */
+  private void visitLocaleReference(Node n, Node parent) {
+    if (parent.isParamList() || isInConsumer(n)) {
+      return;
+    }
+    if (!parent.isGetProp() || parent.getFirstChild() != n) {
+      usedFields.add("*");
+      return;
+    }
+    String field = parent.getLastChild().getString();
+    Node grandparent = parent.getParent();
+    if (grandparent.isGetProp() && grandparent.getFirstChild() == parent) {
+      field += "." + grandparent.getLastChild().getString();
+    }
+    usedFields.add(field);
+  }
+
+  private boolean isMentioned(String name) {
+    Pattern word = Pattern.compile("\\b" + Pattern.quote(name) + "\\b");
+    for (String string : strings) {
+      if (word.matcher(string).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isUsed(String group, String field) {
+    if (usedFields.contains("*") || usedFields.contains(group)
+        || usedFields.contains(group + "." + field)) {
+      return true;
+    }
+    if (group.equals(DATETIME_FORMATS)) {
+      return usedFilters.contains("date") && (!NAMED_DATE_FORMATS.contains(field)
+          || field.equals(DEFAULT_DATE_FORMAT) || isMentioned(field));
+    }
+    for (Map.Entry<String, Set<String>> filter : NUMBER_FIELDS.entrySet()) {
+      if (usedFilters.contains(filter.getKey()) && filter.getValue().contains(field)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the unused fields of a definition, returning an estimate of the
+   * bytes saved.
+   */
+  private int prune(Node definition, List<String> removed) {
+    int bytes = 0;
+    for (String group : Arrays.asList(DATETIME_FORMATS, NUMBER_FORMATS)) {
+      Node key = getKey(definition, group);
+      if (key == null || !key.getFirstChild().isObjectLit()) {
+        continue;
+      }
+      // The group itself is kept, as the filters read it when they are
+      // created, even if they are never called.
+      Node next;
+      for (Node field = key.getFirstChild().getFirstChild(); field != null; field = next) {
+        next = field.getNext();
+        if (field.isStringKey() && !isUsed(group, field.getString())) {
+          bytes += CodeSizeEstimator.estimateSize(field);
+          field.detachFromParent();
+          removed.add(group + "." + field.getString());
+        }
+      }
+    }
+    Node pluralCat = getKey(definition, PLURAL_CAT);
+    if (pluralCat != null && !usedDirectives.contains("ngPluralize")
+        && !usedFields.contains("*") && !usedFields.contains(PLURAL_CAT)) {
+      bytes += CodeSizeEstimator.estimateSize(pluralCat);
+      pluralCat.detachFromParent();
+      removed.add(PLURAL_CAT);
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the statement that registers a definition with
+   * $provide.value('$locale', {...}), or null if it is defined otherwise.
+   */
+  private static Node getRegistration(Node definition) {
+    Node call = definition.getParent();
+    if (!call.isCall() || call.getChildCount() != 3 || call.getLastChild() != definition
+        || !call.getFirstChild().isQualifiedName()
+        || !call.getFirstChild().getQualifiedName().equals("$provide.value")
+        || !call.getChildAtIndex(1).isString()
+        || !call.getChildAtIndex(1).getString().equals("$locale")) {
+      return null;
+    }
+    return call.getParent().isExprResult() ? call.getParent() : null;
+  }
+
+  private static String getId(Node definition) {
+    Node id = getKey(definition, "id").getFirstChild();
+    return id.isString() ? normalizeLocale(id.getString()) : null;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    definitions = new ArrayList<Node>();
+    usedFilters = new HashSet<String>();
+    usedDirectives = new HashSet<String>();
+    usedFields = new HashSet<String>();
+    strings = new ArrayList<String>();
+    templateUrls = new HashSet<String>();
+    cachedTemplates = new HashSet<String>();
+    for (String name : keptConsumers) {
+      usedFilters.add(name);
+      usedDirectives.add(name);
+      usedDirectives.add(AngularTemplates.normalizeDirectiveName(name));
+    }
+    NodeTraversal.traverse(compiler, root, this);
+
+    int removedLocales = 0;
+    int bytes = 0;
+    List<String> removedFields = new ArrayList<String>();
+    boolean pruneFields = cachedTemplates.containsAll(templateUrls);
+    if (!pruneFields && reportOutput != null) {
+      reportOutput.println("locale: not all templates are inlined, no fields removed.");
+    }
+    for (Node definition : definitions) {
+      Node registration = getRegistration(definition);
+      String id = getId(definition);
+      if (!locales.isEmpty() && registration != null && id != null && !locales.contains(id)) {
+        bytes += CodeSizeEstimator.estimateSize(registration);
+        registration.detachFromParent();
+        removedLocales++;
+        if (reportOutput != null) {
+          reportOutput.println("locale: removed locale '" + id + "'.");
+        }
+      } else if (pruneFields) {
+        bytes += prune(definition, removedFields);
+      }
+    }
+    if (removedLocales > 0 || !removedFields.isEmpty()) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("locale: removed " + removedLocales + " locales and "
+          + removedFields.size() + " unused fields, saving about " + bytes + " bytes.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isStringKey() && n.getString().equals("templateUrl") && n.getFirstChild().isString()) {
+      templateUrls.add(n.getFirstChild().getString());
+    } else if (AngularTemplates.isTemplateCachePut(n)) {
+      cachedTemplates.add(n.getChildAtIndex(1).getString());
+    }
+    if (isDefinition(n)) {
+      definitions.add(n);
+    } else if (n.isName() && n.getString().equals("$locale")) {
+      visitLocaleReference(n, parent);
+    } else if (n.isName() && parent.isParamList() && n.getString().endsWith("Filter")) {
+      // function (dateFilter) {...}
+      usedFilters.add(n.getString().substring(0, n.getString().length() - "Filter".length()));
+    } else if (n.isString() && !parent.isGetProp()) {
+      String value = n.getString();
+      strings.add(value);
+      if (parent.isCall() && parent.getChildAtIndex(1) == n && parent.getFirstChild().isName()
+          && parent.getFirstChild().getString().equals("$filter")) {
+        // $filter('date')
+        usedFilters.add(value);
+      }
+      if (value.endsWith("Filter")) {
+        // ['dateFilter', function (format) {...}]
+        usedFilters.add(value.substring(0, value.length() - "Filter".length()));
+      }
+      if (value.contains("<")) {
+        usedDirectives.addAll(AngularTemplates.extractDirectiveNames(value));
+      }
+      if (value.contains("|")) {
+        usedFilters.addAll(AngularTemplates.extractFilterNames(value));
+      }
+    }
+  }
+}
@@ -7,20 +7,27 @@ import com.google.javascript.jscomp.JsAst;
 import com.google.javascript.jscomp.JSError;
 import com.google.javascript.jscomp.NodeTraversal;
 import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+import com.google.javascript.jscomp.Scope;
 import com.google.javascript.jscomp.SourceFile;
 
+import com.google.javascript.rhino.IR;
 import com.google.javascript.rhino.Node;
 
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
 
 class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
   final AbstractCompiler compiler;
@@ -31,6 +38,16 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
   private PrintStream errorConfigOutput;
   private Node minerrDefNode;
   private String minerrDefSource;
+  private boolean hoistInstances;
+  private Map<Node, Node> factoryCalls;
+  private Map<Node, Scope> factoryCallScopes;
+  private Set<String> usedNames;
+  private Map<String, Node> hoistedInstances;
+  private boolean deduplicateThrows;
+  private Map<Node, Node> throwSites;
+  private PrintStream reportOutput;
+  private String conversionNamespace;
+  private List<String> conversionFiles;
 
   static final DiagnosticType THROW_IS_NOT_MINERR_ERROR_WARNING =
       DiagnosticType.warning("JSC_THROW_IS_NOT_MINERR_ERROR_WARNING",
@@ -49,6 +66,11 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
     namespaces = new HashMap<String, Map<String, String>>();
     globalNamespace = new HashMap<String, String>();
     minerrInstances = new ArrayList<Node>();
+    factoryCalls = new LinkedHashMap<Node, Node>();
+    factoryCallScopes = new HashMap<Node, Scope>();
+    usedNames = new HashSet<String>();
+    hoistedInstances = new HashMap<String, Node>();
+    throwSites = new LinkedHashMap<Node, Node>();
     this.errorConfigOutput = errorConfigOutput;
     minerrDefSource = minerrDef;
   }
@@ -57,12 +79,105 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
     this(compiler, errorConfigOutput, null);
   }
 
+  /**
+   * When enabled, repeated calls of the form {@code minErr('ns')} are replaced
+   * with a reference to a single per-namespace instance declared next to the
+   * minErr definition, so inline throws no longer allocate a new closure.
+   */
+  void setHoistInstances(boolean hoistInstances) {
+    this.hoistInstances = hoistInstances;
+  }
+
+  /**
+   * When enabled, throw sites that use the same minErr instance, error code and
+   * number of arguments are rewritten to call a shared helper function that
+   * creates the error.
+   */
+  void setDeduplicateThrows(boolean deduplicateThrows) {
+    this.deduplicateThrows = deduplicateThrows;
+  }
+
+  /**
+   * Sets the stream that statistics about the optional rewrites are printed
+   * to. Nothing is reported if it is not set.
+   */
+  void setReportOutput(PrintStream reportOutput) {
+    this.reportOutput = reportOutput;
+  }
+
+  /**
+   * Enables rewriting of {@code throw new Error('...')} and
+   * {@code throw new TypeError('...')} with a constant message into minErr
+   * calls in the given namespace. Only throws in the listed source files are
+   * converted. Each message is given a code derived from its text, so codes
+   * stay the same between builds, and is recorded in the error catalog.
+   */
+  void setErrorConversion(String namespace, List<String> files) {
+    conversionNamespace = namespace;
+    conversionFiles = files;
+  }
+
   static String substituteInCode(String code, String url, String separator) {
     return code
             .replace("MINERR_URL", url)
             .replace("MINERR_SEPARATOR", separator);
   }
 
+  /**
+   * Wraps the substituted minErr runtime so that it can be loaded once as a
+   * separate script, exporting minErr as a property of the global object.
+   */
+  static String createSharedRuntime(String code, String global) {
+    return "(function (window) {\n"
+        + code
+        + "window['" + global + "'] = minErr;\n"
+        + "})(window);\n";
+  }
+
+  /**
+   * Creates a minErr definition that delegates to the shared runtime exported
+   * by {@link #createSharedRuntime}.
+   */
+  static String createSharedRuntimeReference(String global) {
+    return "function minErr(module, ErrorConstructor) {\n"
+        + "  return window['" + global + "'](module, ErrorConstructor);\n"
+        + "}\n";
+  }
+
+  /**
+   * Fills in the placeholders of the lazy minErr stub (minErrStub.js). The
+   * stub creates errors with a short message and loads the formatter from
+   * {@code formatterUrl} the first time it is used.
+   */
+  static String substituteInStub(String code, String url, String separator,
+                                 String formatterUrl, String global) {
+    return substituteInCode(code
+            .replace("MINERR_FORMATTER_URL", formatterUrl)
+            .replace("MINERR_FORMATTER_GLOBAL", global),
+        url, separator);
+  }
+
+  /**
+   * Wraps the substituted minErr runtime into the script loaded by the lazy
+   * stub. It exports a function that formats the full message, and fills in
+   * the messages of errors that were created before it was loaded.
+   */
+  static String createLazyFormatter(String code, String global) {
+    return "(function (window) {\n"
+        + code
+        + "var format = function (module, args) {\n"
+        + "  var Message = function (message) { this.message = message; };\n"
+        + "  return minErr(module, Message).apply(null, args).message;\n"
+        + "};\n"
+        + "var queue = window['" + global + "Queue'] || [];\n"
+        + "for (var i = 0; i < queue.length; i++) {\n"
+        + "  queue[i][0].message = format(queue[i][1], queue[i][2]);\n"
+        + "}\n"
+        + "window['" + global + "'] = format;\n"
+        + "window['" + global + "Queue'] = [];\n"
+        + "})(window);\n";
+  }
+
   private Node createSubstituteMinerrDefinition() {
     SourceFile source = SourceFile.fromCode("MINERR_ASSET", minerrDefSource);
     JsAst ast = new JsAst(source);
@@ -170,6 +285,367 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
     return null;
   }
 
+  private boolean isHoistableFactoryCall(Node ast) {
+    // Only true for calls of the form minErr('ns'), with a constant namespace.
+    if (isMinerrCall(ast) && ast.getChildCount() == 2) {
+      try {
+        getExprStringR(ast.getLastChild());
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private boolean isDeclaredIn(Node ast, Node block) {
+    // Calls that already initialize a variable declared in the hoisting block
+    // are left alone.
+    Node parent = ast.getParent();
+    return parent.isName() && parent.getParent().isVar()
+        && parent.getParent().getParent() == block;
+  }
+
+  private boolean isDescendantOf(Node ast, Node ancestor) {
+    for (Node n = ast; n != null; n = n.getParent()) {
+      if (n == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String createUniqueName(String base) {
+    String name = base;
+    for (int i = 0; usedNames.contains(name); i++) {
+      name = base + "$" + i;
+    }
+    usedNames.add(name);
+    return name;
+  }
+
+  private static boolean isAssignedIn(Node ast, String name) {
+    if (ast.isAssign() && ast.getFirstChild().isName()
+        && ast.getFirstChild().getString().equals(name)) {
+      return true;
+    }
+    for (Node child : ast.children()) {
+      if (isAssignedIn(child, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Node getStatementIn(Node ast, Node block) {
+    Node statement = ast;
+    while (statement.getParent() != block) {
+      statement = statement.getParent();
+    }
+    return statement;
+  }
+
+  private static boolean isBefore(Node statement, Node other) {
+    for (Node n = statement.getNext(); n != null; n = n.getNext()) {
+      if (n == other) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * True if a factory call can be replaced by a variable that an existing
+   * declaration in the hoisting block initializes with the same call, i.e.
+   * the call runs after the declaration and the name refers to it there.
+   */
+  private boolean canReuseDeclaration(Node call, Node name, Node block) {
+    Scope.Var var = factoryCallScopes.get(call).getVar(name.getString());
+    return var != null && var.getNameNode() == name
+        && isBefore(name.getParent(), getStatementIn(call, block))
+        && !isAssignedIn(block, name.getString());
+  }
+
+  private boolean hoistFactoryCalls(Node block) {
+    Map<String, List<Node>> callsByNamespace = new LinkedHashMap<String, List<Node>>();
+    // Declarations like var ngMinErr = minErr('ng'); that already exist.
+    Map<String, Node> declarations = new HashMap<String, Node>();
+    for (Map.Entry<Node, Node> entry : factoryCalls.entrySet()) {
+      Node call = entry.getKey();
+      if (entry.getValue() != minerrDefNode.getFirstChild() || !isDescendantOf(call, block)) {
+        continue;
+      }
+      String namespace = getExprStringR(call.getLastChild());
+      if (isDeclaredIn(call, block)) {
+        if (!declarations.containsKey(namespace)) {
+          declarations.put(namespace, call.getParent());
+        }
+        continue;
+      }
+      if (!callsByNamespace.containsKey(namespace)) {
+        callsByNamespace.put(namespace, new ArrayList<Node>());
+      }
+      callsByNamespace.get(namespace).add(call);
+    }
+
+    boolean codeChanged = false;
+    for (Map.Entry<String, List<Node>> entry : callsByNamespace.entrySet()) {
+      List<Node> calls = entry.getValue();
+      Node declaration = declarations.get(entry.getKey());
+      if (declaration != null) {
+        for (Node call : calls) {
+          if (canReuseDeclaration(call, declaration, block)) {
+            Node ref = IR.name(declaration.getString());
+            ref.useSourceInfoFrom(call);
+            call.getParent().replaceChild(call, ref);
+            codeChanged = true;
+          }
+        }
+        continue;
+      }
+      if (calls.size() < 2) {
+        continue;
+      }
+      String name = createUniqueName(
+          entry.getKey().replaceAll("[^\\w$]", "_") + "MinErr");
+      hoistedInstances.put(name, block);
+      Node first = calls.get(0);
+      Node decl = IR.var(IR.name(name), first.cloneTree());
+      decl.useSourceInfoIfMissingFromForTree(minerrDefNode);
+      block.addChildToFront(decl);
+      for (Node call : calls) {
+        Node ref = IR.name(name);
+        ref.useSourceInfoFrom(call);
+        call.getParent().replaceChild(call, ref);
+      }
+      codeChanged = true;
+    }
+    return codeChanged;
+  }
+
+  private Node getDeclaringBlock(NodeTraversal t, String name) {
+    Scope scope = t.getScope();
+    while (scope != null && scope.getOwnSlot(name) == null) {
+      scope = scope.getParent();
+    }
+    if (scope == null) {
+      return null;
+    }
+    Node root = scope.getRootNode();
+    if (root.isFunction()) {
+      return root.getLastChild();
+    }
+    Node script = scope.getOwnSlot(name).getNameNode();
+    while (script != null && !script.isScript()) {
+      script = script.getParent();
+    }
+    return script;
+  }
+
+  private boolean isLiteral(Node ast) {
+    return ast.isString() || ast.isNumber() || ast.isTrue() || ast.isFalse()
+        || ast.isNull();
+  }
+
+  private Node createCall(String name, List<Node> args) {
+    Node call = IR.call(IR.name(name), args.toArray(new Node[args.size()]));
+    call.putBooleanProp(Node.FREE_CALL, true);
+    return call;
+  }
+
+  private int deduplicateThrowSites() {
+    // Group throw sites by the block declaring their minErr instance, the
+    // instance name, the error code and the number of arguments.
+    Map<Node, Map<String, List<Node>>> groups = new LinkedHashMap<Node, Map<String, List<Node>>>();
+    for (Map.Entry<Node, Node> entry : throwSites.entrySet()) {
+      Node instance = entry.getKey().getFirstChild();
+      Node callee = instance.getFirstChild();
+      Node block = entry.getValue();
+      if (!callee.isName() || instance.getChildCount() < 2) {
+        continue;
+      }
+      if (hoistedInstances.containsKey(callee.getString())) {
+        block = hoistedInstances.get(callee.getString());
+      }
+      if (block == null || !isDescendantOf(instance, block)) {
+        continue;
+      }
+      String code;
+      try {
+        code = getExprStringR(instance.getChildAtIndex(1));
+      } catch (IllegalArgumentException e) {
+        continue;
+      }
+      if (!groups.containsKey(block)) {
+        groups.put(block, new LinkedHashMap<String, List<Node>>());
+      }
+      Map<String, List<Node>> blockGroups = groups.get(block);
+      String key = callee.getString() + "\0" + code + "\0" + instance.getChildCount();
+      if (!blockGroups.containsKey(key)) {
+        blockGroups.put(key, new ArrayList<Node>());
+      }
+      blockGroups.get(key).add(instance);
+    }
+
+    int sitesReplaced = 0;
+    int helpersCreated = 0;
+    int bytesSaved = 0;
+    for (Map.Entry<Node, Map<String, List<Node>>> blockGroups : groups.entrySet()) {
+      for (List<Node> instances : blockGroups.getValue().values()) {
+        if (instances.size() < 2) {
+          continue;
+        }
+        int saved = deduplicate(blockGroups.getKey(), instances);
+        if (saved > 0) {
+          sitesReplaced += instances.size();
+          helpersCreated++;
+          bytesSaved += saved;
+        }
+      }
+    }
+
+    if (reportOutput != null) {
+      reportOutput.println("minErr: deduplicated " + sitesReplaced + " throw sites into "
+          + helpersCreated + " helpers, saving about " + bytesSaved + " bytes.");
+    }
+    return helpersCreated;
+  }
+
+  private int deduplicate(Node block, List<Node> instances) {
+    Node first = instances.get(0);
+    String callee = first.getFirstChild().getString();
+    String code = getExprStringR(first.getChildAtIndex(1));
+
+    // Arguments that are the same literal at every site are moved into the
+    // helper, the rest become its parameters.
+    List<Integer> paramIndices = new ArrayList<Integer>();
+    List<Node> params = new ArrayList<Node>();
+    List<Node> helperArgs = new ArrayList<Node>();
+    helperArgs.add(first.getChildAtIndex(1).cloneTree());
+    for (int i = 2; i < first.getChildCount(); i++) {
+      Node arg = first.getChildAtIndex(i);
+      boolean shared = isLiteral(arg);
+      for (Node instance : instances) {
+        shared = shared && arg.isEquivalentTo(instance.getChildAtIndex(i));
+      }
+      if (shared) {
+        helperArgs.add(arg.cloneTree());
+      } else {
+        Node param = IR.name("p" + params.size());
+        paramIndices.add(i);
+        params.add(param);
+        helperArgs.add(param.cloneNode());
+      }
+    }
+
+    String name = createUniqueName(callee + "$" + code.replaceAll("[^\\w$]", "_"));
+    Node helper = IR.function(IR.name(name), IR.paramList(params),
+        IR.block(IR.returnNode(createCall(callee, helperArgs))));
+
+    List<Node> replacements = new ArrayList<Node>();
+    int saved = -CodeSizeEstimator.estimateSize(helper);
+    for (Node instance : instances) {
+      List<Node> args = new ArrayList<Node>();
+      for (int i : paramIndices) {
+        args.add(instance.getChildAtIndex(i).cloneTree());
+      }
+      Node replacement = createCall(name, args);
+      replacements.add(replacement);
+      saved += CodeSizeEstimator.estimateSize(instance)
+          - CodeSizeEstimator.estimateSize(replacement);
+    }
+    if (saved <= 0) {
+      return 0;
+    }
+
+    helper.useSourceInfoIfMissingFromForTree(first);
+    block.addChildToFront(helper);
+    for (int i = 0; i < instances.size(); i++) {
+      Node instance = instances.get(i);
+      Node replacement = replacements.get(i);
+      replacement.useSourceInfoIfMissingFromForTree(instance);
+      instance.getParent().replaceChild(instance, replacement);
+    }
+    return saved;
+  }
+
+  private boolean isConversionWhitelisted(String sourceName) {
+    if (conversionNamespace == null || conversionFiles == null || sourceName == null) {
+      return false;
+    }
+    for (String file : conversionFiles) {
+      if (sourceName.equals(file) || sourceName.endsWith("/" + file)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isConvertibleError(NodeTraversal t, Node ast) {
+    // Only true for expressions of the form
+    // new Error('message') or new TypeError('message')
+    if (!ast.isNew() || ast.getChildCount() != 2 || !ast.getFirstChild().isName()) {
+      return false;
+    }
+    String name = ast.getFirstChild().getString();
+    if (!name.equals("Error") && !name.equals("TypeError")) {
+      return false;
+    }
+    Scope.Var constructorVar = t.getScope().getVar(name);
+    if (constructorVar != null && !constructorVar.getNameNode().isFromExterns()) {
+      return false;
+    }
+    if (t.getScope().getVar("minErr") == null) {
+      return false;
+    }
+    try {
+      getExprStringR(ast.getLastChild());
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private String createErrorCode(String namespace, String message) {
+    CRC32 crc = new CRC32();
+    try {
+      crc.update(message.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    String base = Long.toString(crc.getValue(), 36);
+    String code = base;
+    Map<String, String> messages = namespaces.get(namespace);
+    for (int i = 1; messages != null && messages.containsKey(code)
+        && !messages.get(code).equals(message); i++) {
+      code = base + i;
+    }
+    return code;
+  }
+
+  private void convertToMinerr(NodeTraversal t, Node ast) {
+    String constructor = ast.getFirstChild().getString();
+    String message = getExprStringR(ast.getLastChild());
+    String code = createErrorCode(conversionNamespace, message);
+    addMessageToNamespace(conversionNamespace, code, message);
+
+    Node factory = IR.call(IR.name("minErr"), IR.string(conversionNamespace));
+    if (!constructor.equals("Error")) {
+      factory.addChildToBack(IR.name(constructor));
+    }
+    factory.putBooleanProp(Node.FREE_CALL, true);
+    Node instance = IR.call(factory, IR.string(code));
+    instance.putBooleanProp(Node.FREE_CALL, true);
+    instance.useSourceInfoIfMissingFromForTree(ast);
+    ast.getParent().replaceChild(ast, instance);
+    compiler.reportCodeChange();
+
+    if (hoistInstances && isHoistableFactoryCall(factory)) {
+      factoryCalls.put(factory, t.getScope().getVar("minErr").getNameNode());
+      factoryCallScopes.put(factory, t.getScope());
+    }
+  }
+
   @Override
   public void process(Node externs, Node root) {
     NodeTraversal.traverse(compiler, root, this);
@@ -191,6 +667,14 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
       codeChanged = true;
     }
 
+    if (hoistInstances && minerrDefNode != null) {
+      codeChanged |= hoistFactoryCalls(minerrDefNode.getParent());
+    }
+
+    if (deduplicateThrows) {
+      codeChanged |= deduplicateThrowSites() > 0;
+    }
+
     if (minerrDefNode != null && minerrDefSource != null) {
       Node newMinErrDef = createSubstituteMinerrDefinition();
       newMinErrDef.useSourceInfoFromForTree(minerrDefNode);
@@ -210,15 +694,30 @@ class MinerrPass extends AbstractPostOrderCallback implements CompilerPass {
 
   @Override
   public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isThrow() && isConversionWhitelisted(t.getSourceName())
+        && isConvertibleError(t, n.getFirstChild())) {
+      convertToMinerr(t, n.getFirstChild());
+    }
     if (n.isThrow()) {
       if (!isMinerrInstance(n.getFirstChild())) {
         compiler.report(t.makeError(n, THROW_IS_NOT_MINERR_ERROR_WARNING));
         unmarkInstancesBelow(n);
+      } else if (deduplicateThrows) {
+        Node callee = n.getFirstChild().getFirstChild();
+        throwSites.put(n, callee.isName() ? getDeclaringBlock(t, callee.getString()) : null);
       }
     }
     if (isMinerrInstance(n)) {
       minerrInstances.add(n);
     }
+    if (n.isName()) {
+      usedNames.add(n.getString());
+    }
+    if (hoistInstances && isHoistableFactoryCall(n)) {
+      Scope.Var minerrVar = t.getScope().getVar("minErr");
+      factoryCalls.put(n, minerrVar != null ? minerrVar.getNameNode() : null);
+      factoryCallScopes.put(n, t.getScope());
+    }
     if (isMinerrDefinition(n)) {
       if (minerrDefNode == null) {
         minerrDefNode = n;
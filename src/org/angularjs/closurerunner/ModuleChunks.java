@@ -0,0 +1,162 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the input files into chunks along the graph of
+ * {@code angular.module(name, requires)} definitions, so that feature modules
+ * can be loaded when they are first needed instead of with the application.
+ *
+ * Every module that no other module requires, apart from the bootstrap
+ * modules, is the root of a chunk, which holds the root and the modules only
+ * it requires. The bootstrap modules, the modules they require and the
+ * modules required by more than one root make up the base chunk that all
+ * other chunks depend on. A file goes into the chunk of the modules it
+ * defines or registers components on, and into the base chunk if it uses
+ * none or modules of different chunks, as Angular itself does. The modules of
+ * a chunk that gets no files are in the base chunk.
+ */
+class ModuleChunks {
+  static final String BASE_CHUNK = "base";
+
+  private List<String> files;
+  private Map<String, Set<String>> fileModules;
+  private Map<String, List<String>> moduleRequires;
+  // The files of each chunk in input order, starting with the base chunk.
+  final Map<String, List<String>> chunkFiles;
+  // The chunk each defined module is in.
+  final Map<String, String> moduleChunks;
+
+  ModuleChunks() {
+    files = new ArrayList<String>();
+    fileModules = new HashMap<String, Set<String>>();
+    moduleRequires = new LinkedHashMap<String, List<String>>();
+    chunkFiles = new LinkedHashMap<String, List<String>>();
+    moduleChunks = new LinkedHashMap<String, String>();
+  }
+
+  /**
+   * Records the modules a parsed file defines or registers components on.
+   */
+  void addFile(AbstractCompiler compiler, Node script) {
+    AngularModules modules = new AngularModules();
+    modules.collect(compiler, script);
+    Set<String> names = new LinkedHashSet<String>(modules.moduleRequires.keySet());
+    for (Registration registration : modules.registrations) {
+      if (registration.module != null) {
+        names.add(registration.module);
+      }
+    }
+    files.add(script.getSourceFileName());
+    fileModules.put(script.getSourceFileName(), names);
+    moduleRequires.putAll(modules.moduleRequires);
+  }
+
+  /**
+   * Returns the modules that are reachable from the given ones.
+   */
+  private Set<String> collectRequires(Collection<String> roots) {
+    Set<String> reachable = new LinkedHashSet<String>();
+    List<String> queue = new ArrayList<String>(roots);
+    while (!queue.isEmpty()) {
+      String module = queue.remove(queue.size() - 1);
+      if (reachable.add(module) && moduleRequires.containsKey(module)) {
+        queue.addAll(moduleRequires.get(module));
+      }
+    }
+    return reachable;
+  }
+
+  /**
+   * Returns a file name for the chunk of a root module that isn't in the
+   * given names yet, and adds it, e.g. 'a_b_1' for 'a/b' if 'a_b' is taken.
+   */
+  static String getChunkName(String module, Set<String> names) {
+    String base = module.replaceAll("[^\\w.-]", "_");
+    String name = base;
+    for (int i = 1; names.contains(name); i++) {
+      name = base + "_" + i;
+    }
+    names.add(name);
+    return name;
+  }
+
+  void compute(List<String> bootstrapModules) {
+    Set<String> required = new HashSet<String>();
+    for (List<String> requires : moduleRequires.values()) {
+      required.addAll(requires);
+    }
+    List<String> roots = new ArrayList<String>();
+    for (String module : moduleRequires.keySet()) {
+      if (!required.contains(module) && !bootstrapModules.contains(module)) {
+        roots.add(module);
+      }
+    }
+
+    Map<String, String> rootChunks = new HashMap<String, String>();
+    Set<String> chunkNames = new HashSet<String>();
+    chunkNames.add(BASE_CHUNK);
+    for (String root : roots) {
+      rootChunks.put(root, getChunkName(root, chunkNames));
+    }
+
+    Set<String> base = collectRequires(bootstrapModules);
+    Map<String, Set<String>> reachingRoots = new HashMap<String, Set<String>>();
+    for (String root : roots) {
+      for (String module : collectRequires(Collections.singleton(root))) {
+        if (!reachingRoots.containsKey(module)) {
+          reachingRoots.put(module, new HashSet<String>());
+        }
+        reachingRoots.get(module).add(root);
+      }
+    }
+    for (String module : moduleRequires.keySet()) {
+      Set<String> reaching = reachingRoots.get(module);
+      if (base.contains(module) || reaching == null || reaching.size() != 1) {
+        // Also modules that are only in a cycle no root reaches.
+        moduleChunks.put(module, BASE_CHUNK);
+      } else {
+        moduleChunks.put(module, rootChunks.get(reaching.iterator().next()));
+      }
+    }
+
+    chunkFiles.put(BASE_CHUNK, new ArrayList<String>());
+    for (String root : roots) {
+      chunkFiles.put(rootChunks.get(root), new ArrayList<String>());
+    }
+    for (String file : files) {
+      Set<String> chunks = new HashSet<String>();
+      for (String module : fileModules.get(file)) {
+        chunks.add(moduleChunks.containsKey(module) ? moduleChunks.get(module) : BASE_CHUNK);
+      }
+      String chunk = chunks.size() == 1 ? chunks.iterator().next() : BASE_CHUNK;
+      chunkFiles.get(chunk).add(file);
+    }
+    for (String root : roots) {
+      String chunk = rootChunks.get(root);
+      if (chunkFiles.get(chunk).isEmpty()) {
+        chunkFiles.remove(chunk);
+        for (Map.Entry<String, String> module : moduleChunks.entrySet()) {
+          if (module.getValue().equals(chunk)) {
+            module.setValue(BASE_CHUNK);
+          }
+        }
+      }
+    }
+  }
+}
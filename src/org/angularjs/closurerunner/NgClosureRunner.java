@@ -8,18 +8,74 @@ import com.google.javascript.jscomp.CommandLineRunner;
 import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.CompilerPass;
 import com.google.javascript.jscomp.CustomPassExecutionTime;
+import com.google.javascript.jscomp.SourceFile;
 
+import com.google.javascript.rhino.Node;
+
+import org.json.JSONObject;
+
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.lang.reflect.Field;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 public class NgClosureRunner extends CommandLineRunner {
 
+  static final String MINERR_STUB_RESOURCE_PATH = "minErrStub.js";
+  static final String LAZY_FORMATTER_GLOBAL = "angularMinErrFormat";
+
+  // The values the compiler accepts after a flag that doesn't need one.
+  static final List<String> BOOLEAN_VALUES = Arrays.asList(
+      "true", "on", "yes", "1", "false", "off", "no", "0");
+
+  // The flags that write or read files of the production build, which the
+  // debug variant leaves out.
+  static final Set<String> PRODUCTION_FILE_FLAGS = new HashSet<String>(Arrays.asList(
+      "--js_output_file", "--create_source_map", "--output_manifest",
+      "--output_module_dependencies", "--variable_map_input_file",
+      "--variable_map_output_file", "--property_map_input_file", "--property_map_output_file",
+      "--variable_renaming_report", "--property_renaming_report"));
+
   private boolean minerrPass;
+  private boolean minerrHoistInstances;
+  private boolean minerrDedupeThrows;
+  private String minerrConvertNamespace;
+  private List<String> minerrConvertFiles;
+  private String minerrSharedRuntime, minerrSharedRuntimeGlobal;
+  private String minerrLazyFormatter, minerrLazyFormatterUrl;
+  private boolean inlineTemplates;
+  private String templateRoot, templateModule, templateManifest;
+  private String expressionTable;
+  private boolean oneTimeBindings;
+  private boolean generateExterns;
+  private String externsOutput;
+  private String dependencyGraph;
+  private String directiveTable;
+  private boolean annotateDependencies;
+  private boolean removeUnusedProviders;
+  private List<String> bootstrapModules, keptProviders;
+  private List<String> strippedCalls;
+  private boolean pruneLocale;
+  private List<String> requiredLocales, localeConsumers;
+  private Map<String, String> featureFlags;
+  private boolean lowerForEach;
+  private boolean inlineIntrinsics;
+  private boolean performanceLint;
+  private boolean eliminateArguments;
+  private boolean hoistAllocations;
   private String minerrErrors, minerrUrl, minerrSeparator;
   private String minerrJsResourcePath;
   private Compiler cachedCompiler;
@@ -34,6 +90,8 @@ public class NgClosureRunner extends CommandLineRunner {
     this.minerrPass = minerrPass;
     this.minerrSeparator = minerrSeparator;
     this.minerrJsResourcePath = minerrJsResourcePath;
+    this.minerrConvertNamespace = "ng";
+    this.minerrConvertFiles = new ArrayList<String>();
 
     if (minerrErrors != null) {
       this.minerrErrors = minerrErrors;
@@ -43,6 +101,379 @@ public class NgClosureRunner extends CommandLineRunner {
     this.minerrUrl = minerrUrl;
   }
 
+  void setMinerrHoistInstances(boolean minerrHoistInstances) {
+    this.minerrHoistInstances = minerrHoistInstances;
+  }
+
+  void setMinerrDedupeThrows(boolean minerrDedupeThrows) {
+    this.minerrDedupeThrows = minerrDedupeThrows;
+  }
+
+  void setMinerrErrorConversion(String namespace, List<String> files) {
+    this.minerrConvertNamespace = namespace;
+    this.minerrConvertFiles = files;
+  }
+
+  void setMinerrSharedRuntime(String path, String global) {
+    this.minerrSharedRuntime = path;
+    this.minerrSharedRuntimeGlobal = global;
+  }
+
+  void setMinerrLazyFormatter(String path, String url) {
+    this.minerrLazyFormatter = path;
+    this.minerrLazyFormatterUrl = url != null ? url : path;
+  }
+
+  void setTemplateInlining(boolean inlineTemplates, String root, String module,
+                           String manifest) {
+    this.inlineTemplates = inlineTemplates;
+    this.templateRoot = root;
+    this.templateModule = module;
+    this.templateManifest = manifest;
+  }
+
+  void setExpressionPrecompilation(String expressionTable) {
+    this.expressionTable = expressionTable;
+  }
+
+  void setOneTimeBindings(boolean oneTimeBindings) {
+    this.oneTimeBindings = oneTimeBindings;
+  }
+
+  void setExternsGeneration(boolean generateExterns, String externsOutput) {
+    this.generateExterns = generateExterns;
+    this.externsOutput = externsOutput;
+  }
+
+  void setDirectiveNameTable(String directiveTable) {
+    this.directiveTable = directiveTable;
+  }
+
+  void setDependencyGraph(String dependencyGraph) {
+    this.dependencyGraph = dependencyGraph;
+  }
+
+  void setDependencyAnnotation(boolean annotateDependencies) {
+    this.annotateDependencies = annotateDependencies;
+  }
+
+  void setUnusedProviderRemoval(boolean removeUnusedProviders, List<String> bootstrapModules,
+                                List<String> keptProviders) {
+    this.removeUnusedProviders = removeUnusedProviders;
+    this.bootstrapModules = bootstrapModules;
+    this.keptProviders = keptProviders;
+  }
+
+  void setLocalePruning(boolean pruneLocale, List<String> requiredLocales,
+                        List<String> localeConsumers) {
+    this.pruneLocale = pruneLocale;
+    this.requiredLocales = requiredLocales;
+    this.localeConsumers = localeConsumers;
+  }
+
+  void setCallStripping(List<String> strippedCalls) {
+    this.strippedCalls = strippedCalls;
+  }
+
+  void setFeatureFlags(Map<String, String> featureFlags) {
+    this.featureFlags = featureFlags;
+  }
+
+  void setForEachLowering(boolean lowerForEach) {
+    this.lowerForEach = lowerForEach;
+  }
+
+  void setIntrinsicInlining(boolean inlineIntrinsics) {
+    this.inlineIntrinsics = inlineIntrinsics;
+  }
+
+  void setPerformanceLint(boolean performanceLint) {
+    this.performanceLint = performanceLint;
+  }
+
+  void setArgumentsElimination(boolean eliminateArguments) {
+    this.eliminateArguments = eliminateArguments;
+  }
+
+  void setAllocationHoisting(boolean hoistAllocations) {
+    this.hoistAllocations = hoistAllocations;
+  }
+
+  /**
+   * Returns a runner for the debug variant of this build, which keeps the
+   * minErr messages and the debug calls. The files this build writes besides
+   * the compiled code, like the error catalog and the dependency graph, are
+   * only written by this build. The --ng_define feature flags are production
+   * settings and aren't applied to the debug variant.
+   */
+  NgClosureRunner createDebugVariant(String[] args) {
+    NgClosureRunner debug = new NgClosureRunner(args, false, minerrErrors, minerrUrl,
+        minerrSeparator, minerrJsResourcePath);
+    debug.setMinerrErrorConversion(minerrConvertNamespace, minerrConvertFiles);
+    debug.setTemplateInlining(inlineTemplates, templateRoot, templateModule, null);
+    debug.setExpressionPrecompilation(expressionTable);
+    debug.setOneTimeBindings(oneTimeBindings);
+    debug.setExternsGeneration(generateExterns, null);
+    debug.setDirectiveNameTable(directiveTable);
+    debug.setDependencyAnnotation(annotateDependencies);
+    debug.setUnusedProviderRemoval(removeUnusedProviders, bootstrapModules, keptProviders);
+    debug.setLocalePruning(pruneLocale, requiredLocales, localeConsumers);
+    debug.setForEachLowering(lowerForEach);
+    debug.setIntrinsicInlining(inlineIntrinsics);
+    debug.setArgumentsElimination(eliminateArguments);
+    debug.setAllocationHoisting(hoistAllocations);
+    return debug;
+  }
+
+  /**
+   * Returns the arguments for the debug variant of a build: the same, except
+   * that the code is written to the given file and that the renaming maps,
+   * the source map, the manifests and the reports are left to the production
+   * build.
+   */
+  static List<String> createDebugArgs(List<String> args, String output) {
+    List<String> debugArgs = new ArrayList<String>();
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      String flag = arg.startsWith("--") ? arg.split("=", 2)[0] : "";
+      if (PRODUCTION_FILE_FLAGS.contains(flag)) {
+        if (!arg.contains("=")) {
+          i++;
+        }
+      } else if (flag.equals("--create_name_map_files")) {
+        if (!arg.contains("=") && i + 1 < args.size()
+            && BOOLEAN_VALUES.contains(args.get(i + 1).toLowerCase())) {
+          i++;
+        }
+      } else {
+        debugArgs.add(arg);
+      }
+    }
+    debugArgs.add("--js_output_file");
+    debugArgs.add(output);
+    return debugArgs;
+  }
+
+  /**
+   * Compiles with several runners at once, each with its own compiler, and
+   * returns the first non-zero exit code, or 0.
+   */
+  static int runInParallel(List<NgClosureRunner> runners) {
+    final int[] results = new int[runners.size()];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < runners.size(); i++) {
+      final int index = i;
+      final NgClosureRunner runner = runners.get(i);
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = runner.doRun();
+          } catch (FlagUsageException e) {
+            System.err.println(e.getMessage());
+            results[index] = -1;
+          } catch (Throwable e) {
+            e.printStackTrace();
+            results[index] = -2;
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        return -2;
+      }
+    }
+    for (int result : results) {
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the flags that make Closure reuse the renaming maps of a target's
+   * previous build, if there is one, and save the maps of this build, so that
+   * names that didn't change keep their short names across releases.
+   */
+  static List<String> createRenamingMapArgs(String directory, String target) {
+    List<String> args = new ArrayList<String>();
+    new File(directory).mkdirs();
+    File variableMap = new File(directory, target + "_vars_map.out");
+    File propertyMap = new File(directory, target + "_props_map.out");
+    if (variableMap.exists()) {
+      args.add("--variable_map_input_file");
+      args.add(variableMap.getPath());
+    }
+    if (propertyMap.exists()) {
+      args.add("--property_map_input_file");
+      args.add(propertyMap.getPath());
+    }
+    args.add("--variable_map_output_file");
+    args.add(variableMap.getPath());
+    args.add("--property_map_output_file");
+    args.add(propertyMap.getPath());
+    return args;
+  }
+
+  /**
+   * Returns the compiler's flags that don't need a value, e.g. --debug.
+   */
+  private static Set<String> getBooleanFlags() {
+    Set<String> flags = new HashSet<String>();
+    try {
+      Class<?> flagsClass = Class.forName(CommandLineRunner.class.getName() + "$Flags");
+      for (Field field : flagsClass.getDeclaredFields()) {
+        Option option = field.getAnnotation(Option.class);
+        if (option != null && field.getType() == boolean.class) {
+          flags.add(option.name());
+          flags.addAll(Arrays.asList(option.aliases()));
+        }
+      }
+    } catch (ClassNotFoundException e) {
+      // Then every flag without '=' takes the next argument as its value.
+    }
+    return flags;
+  }
+
+  /**
+   * Splits the arguments into the input files, i.e. the values of --js and
+   * the arguments that aren't flags or their values, which the compiler
+   * reads as --js too, and the other arguments.
+   */
+  private static List<String> splitInputFiles(List<String> args, List<String> otherArgs) {
+    Set<String> booleanFlags = getBooleanFlags();
+    List<String> files = new ArrayList<String>();
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      if (arg.equals("--js") && i + 1 < args.size()) {
+        files.add(args.get(++i));
+      } else if (arg.startsWith("--js=")) {
+        files.add(arg.substring("--js=".length()));
+      } else if (!arg.startsWith("-")) {
+        files.add(arg);
+      } else {
+        otherArgs.add(arg);
+        if (!arg.contains("=") && i + 1 < args.size() && (!booleanFlags.contains(arg)
+            || BOOLEAN_VALUES.contains(args.get(i + 1).toLowerCase()))) {
+          otherArgs.add(args.get(++i));
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Returns the files passed with --js or as plain arguments.
+   */
+  static List<String> getInputFiles(List<String> args) {
+    return splitInputFiles(args, new ArrayList<String>());
+  }
+
+  /**
+   * Runs only the minErr pass over the inputs, without optimizing or writing
+   * any code, to write the error catalog and report the pass's warnings.
+   * Returns the number of errors.
+   */
+  static int extractMinerrCatalog(List<String> files, String minerrErrors,
+                                  String convertNamespace, List<String> convertFiles)
+      throws IOException {
+    Compiler compiler = new Compiler(System.err);
+    CompilerOptions options = new CompilerOptions();
+    options.setLanguageIn(CompilerOptions.LanguageMode.ECMASCRIPT5);
+    List<SourceFile> inputs = new ArrayList<SourceFile>();
+    for (String file : files) {
+      inputs.add(SourceFile.fromFile(file));
+    }
+    compiler.init(new ArrayList<SourceFile>(), inputs, options);
+    compiler.parse();
+
+    PrintStream output = new PrintStream(minerrErrors);
+    try {
+      MinerrPass pass = new MinerrPass(compiler, output);
+      if (!convertFiles.isEmpty()) {
+        pass.setErrorConversion(convertNamespace, convertFiles);
+      }
+      pass.process(compiler.getRoot().getFirstChild(), compiler.getRoot().getLastChild());
+    } finally {
+      output.close();
+    }
+    compiler.getErrorManager().generateReport();
+    return compiler.getErrorManager().getErrorCount();
+  }
+
+  /**
+   * Returns the arguments with the --js files reordered into the chunks of
+   * {@link ModuleChunks} and a --module flag for each chunk, and writes a
+   * manifest that maps each Angular module to the file of its chunk.
+   */
+  static List<String> createModuleChunkArgs(List<String> args, List<String> bootstrapModules,
+                                            String manifest) throws IOException {
+    List<String> chunkArgs = new ArrayList<String>();
+    List<String> files = splitInputFiles(args, chunkArgs);
+    String outputPrefix = "./";
+    for (int i = 0; i < chunkArgs.size(); i++) {
+      String arg = chunkArgs.get(i);
+      if (arg.equals("--module_output_path_prefix") && i + 1 < chunkArgs.size()) {
+        outputPrefix = chunkArgs.get(i + 1);
+      } else if (arg.startsWith("--module_output_path_prefix=")) {
+        outputPrefix = arg.substring("--module_output_path_prefix=".length());
+      }
+    }
+
+    List<SourceFile> inputs = new ArrayList<SourceFile>();
+    for (String file : files) {
+      inputs.add(SourceFile.fromFile(file));
+    }
+    Compiler compiler = new Compiler(System.err);
+    compiler.init(new ArrayList<SourceFile>(), inputs, new CompilerOptions());
+    compiler.parse();
+    ModuleChunks chunks = new ModuleChunks();
+    for (Node script : compiler.getRoot().getLastChild().children()) {
+      chunks.addFile(compiler, script);
+    }
+    chunks.compute(bootstrapModules);
+    if (chunks.chunkFiles.get(ModuleChunks.BASE_CHUNK).isEmpty()) {
+      throw new IOException("No files are left for the base chunk.");
+    }
+
+    for (Map.Entry<String, List<String>> chunk : chunks.chunkFiles.entrySet()) {
+      for (String file : chunk.getValue()) {
+        chunkArgs.add("--js");
+        chunkArgs.add(file);
+      }
+      chunkArgs.add("--module");
+      chunkArgs.add(chunk.getKey() + ":" + chunk.getValue().size()
+          + (chunk.getKey().equals(ModuleChunks.BASE_CHUNK) ? "" : ":" + ModuleChunks.BASE_CHUNK));
+    }
+
+    Map<String, String> modules = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> module : chunks.moduleChunks.entrySet()) {
+      modules.put(module.getKey(), outputPrefix + module.getValue() + ".js");
+    }
+    PrintStream output = new PrintStream(manifest);
+    try {
+      output.print(new JSONObject(modules).toString());
+    } finally {
+      output.close();
+    }
+    return chunkArgs;
+  }
+
+  private void writeTextFile(String path, String text) throws IOException {
+    PrintStream file = new PrintStream(path);
+    try {
+      file.print(text);
+    } finally {
+      file.close();
+    }
+  }
+
   private String loadTextResource(String asset) throws IOException {
     InputStream stream = getClass().getClassLoader().getResourceAsStream(asset);
     int size = stream.available();
@@ -64,30 +495,131 @@ public class NgClosureRunner extends CommandLineRunner {
     AbstractCompiler compiler = createCompiler();
     PrintStream output = new PrintStream(minerrErrors);
     String code = loadTextResource(minerrJsResourcePath);
+    MinerrPass pass;
 
-    if (minerrUrl != null) {
-      return new MinerrPass(
+    if (minerrLazyFormatter != null) {
+      writeTextFile(minerrLazyFormatter, MinerrPass.createLazyFormatter(
+          MinerrPass.substituteInCode(code, minerrUrl, minerrSeparator),
+          LAZY_FORMATTER_GLOBAL));
+      pass = new MinerrPass(
+          compiler, output,
+          MinerrPass.substituteInStub(loadTextResource(MINERR_STUB_RESOURCE_PATH),
+              minerrUrl, minerrSeparator, minerrLazyFormatterUrl, LAZY_FORMATTER_GLOBAL));
+    } else if (minerrSharedRuntime != null) {
+      writeTextFile(minerrSharedRuntime, MinerrPass.createSharedRuntime(
+          MinerrPass.substituteInCode(code, minerrUrl, minerrSeparator),
+          minerrSharedRuntimeGlobal));
+      pass = new MinerrPass(
+          compiler, output,
+          MinerrPass.createSharedRuntimeReference(minerrSharedRuntimeGlobal));
+    } else if (minerrUrl != null) {
+      pass = new MinerrPass(
           compiler, output,
           MinerrPass.substituteInCode(code, minerrUrl, minerrSeparator));
+    } else {
+      pass = new MinerrPass(compiler, output);
+    }
+    pass.setHoistInstances(minerrHoistInstances);
+    pass.setDeduplicateThrows(minerrDedupeThrows);
+    pass.setReportOutput(getErrorPrintStream());
+    if (!minerrConvertFiles.isEmpty()) {
+      pass.setErrorConversion(minerrConvertNamespace, minerrConvertFiles);
     }
-    return new MinerrPass(compiler, output);
+    return pass;
+  }
+
+  private CompilerPass createTemplateCachePass() throws IOException {
+    return new TemplateCachePass(createCompiler(), new File(templateRoot), templateModule,
+        templateManifest != null ? new PrintStream(templateManifest) : null);
   }
 
   @Override
   protected CompilerOptions createOptions() {
     CompilerOptions options = super.createOptions();
 
-    if (minerrPass) {
-      if (options.customPasses == null) {
-        options.customPasses = ArrayListMultimap.create();
+    if (options.customPasses == null) {
+      options.customPasses = ArrayListMultimap.create();
+    }
+    try {
+      if (featureFlags != null && !featureFlags.isEmpty()) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new FeatureFlagPass(createCompiler(), featureFlags, getErrorPrintStream()));
       }
-      try {
+      if (inlineIntrinsics) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new IntrinsicInliningPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (strippedCalls != null) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new CallStrippingPass(createCompiler(), strippedCalls, getErrorPrintStream()));
+      }
+      if (annotateDependencies) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new DependencyAnnotationPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (dependencyGraph != null) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new DependencyGraphPass(createCompiler(), new PrintStream(dependencyGraph)));
+      }
+      if (inlineTemplates) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          createTemplateCachePass());
+      }
+      // After template inlining, so that the inlined templates are linted too.
+      if (performanceLint) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new PerformanceLintPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (oneTimeBindings) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new OneTimeBindingPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (generateExterns) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new ExternsGenerationPass(createCompiler(),
+              externsOutput != null ? new PrintStream(externsOutput) : null,
+              getErrorPrintStream()));
+      }
+      if (expressionTable != null) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new ExpressionPrecompilationPass(createCompiler(), expressionTable,
+              getErrorPrintStream()));
+      }
+      if (pruneLocale) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new LocalePruningPass(createCompiler(), requiredLocales, localeConsumers,
+              getErrorPrintStream()));
+      }
+      if (removeUnusedProviders) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new UnusedProviderPass(createCompiler(), bootstrapModules, keptProviders,
+              getErrorPrintStream()));
+      }
+      if (directiveTable != null) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new DirectiveNameTablePass(createCompiler(), directiveTable, getErrorPrintStream()));
+      }
+      if (lowerForEach) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new ForEachLoweringPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (minerrPass) {
         options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
           createMinerrPass());
-      } catch (IOException e) {
-        System.err.println(e);
-        System.exit(1);
       }
+      // These run after the minErr pass, so that the substituted runtime is
+      // included.
+      if (eliminateArguments) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new ArgumentsEliminationPass(createCompiler(), getErrorPrintStream()));
+      }
+      if (hoistAllocations) {
+        options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS,
+          new AllocationHoistingPass(createCompiler(), getErrorPrintStream()));
+      }
+    } catch (IOException e) {
+      System.err.println(e);
+      System.exit(1);
     }
     return options;
   }
@@ -104,16 +636,59 @@ public class NgClosureRunner extends CommandLineRunner {
 
   public static void main(String[] args) {
     boolean minerrPass = false;
+    boolean minerrExtractOnly = false;
+    boolean minerrHoistInstances = false;
+    boolean minerrDedupeThrows = false;
+    String minerrConvertNamespace = "ng";
+    List<String> minerrConvertFiles = new ArrayList<String>();
+    String minerrSharedRuntime = null;
+    String minerrSharedRuntimeGlobal = "angularMinErr";
+    String minerrLazyFormatter = null;
+    String minerrLazyFormatterUrl = null;
+    boolean inlineTemplates = false;
+    String templateRoot = ".";
+    String templateModule = "ng";
+    String templateManifest = "templates.json";
+    boolean precompileExpressions = false;
+    String expressionTable = "angularPrecompiledExpressions";
+    boolean oneTimeBindings = false;
+    boolean generateExterns = false;
+    String externsOutput = null;
+    boolean directiveNames = false;
+    String directiveTable = "angularDirectiveNames";
+    String dependencyGraph = null;
+    boolean annotateDependencies = false;
+    boolean removeUnusedProviders = false;
+    List<String> bootstrapModules = new ArrayList<String>();
+    List<String> keptProviders = new ArrayList<String>();
+    boolean stripCalls = false;
+    List<String> strippedCalls = new ArrayList<String>();
+    boolean pruneLocale = false;
+    List<String> requiredLocales = new ArrayList<String>();
+    List<String> localeConsumers = new ArrayList<String>();
+    Map<String, String> featureFlags = new LinkedHashMap<String, String>();
+    boolean lowerForEach = false;
+    boolean inlineIntrinsics = false;
+    boolean performanceLint = false;
+    boolean eliminateArguments = false;
+    boolean hoistAllocations = false;
     String minerrErrors = "errors.json";
     String minerrUrl = null;
     String minerrSeparator = "/";
     String minerrJsResourcePath = "minErr.js";
+    String renamingMapDirectory = null;
+    String renamingTarget = "default";
+    boolean splitModules = false;
+    String chunkManifest = "chunks.json";
+    String debugOutput = null;
     List<String> passthruArgs = new ArrayList<String>();
 
     for (int i = 0; i < args.length; i++) {
       String arg = args[i];
       if (arg.equals("--minerr_pass")) {
         minerrPass = true;
+      } else if (arg.equals("--minerr_extract_only")) {
+        minerrExtractOnly = true;
       } else if (arg.equals("--minerr_errors")) {
         minerrErrors = args[++i];
       } else if (arg.equals("--minerr_url")) {
@@ -122,17 +697,189 @@ public class NgClosureRunner extends CommandLineRunner {
         minerrSeparator = ":";
       } else if (arg.equals("--minerr_js_resource_path")) {
         minerrJsResourcePath = args[++i];
+      } else if (arg.equals("--minerr_hoist_instances")) {
+        minerrHoistInstances = true;
+      } else if (arg.equals("--minerr_dedupe_throws")) {
+        minerrDedupeThrows = true;
+      } else if (arg.equals("--minerr_convert_errors_in")) {
+        minerrConvertFiles.add(args[++i]);
+      } else if (arg.equals("--minerr_convert_namespace")) {
+        minerrConvertNamespace = args[++i];
+      } else if (arg.equals("--minerr_shared_runtime")) {
+        minerrSharedRuntime = args[++i];
+      } else if (arg.equals("--minerr_shared_runtime_global")) {
+        minerrSharedRuntimeGlobal = args[++i];
+      } else if (arg.equals("--minerr_lazy_formatter")) {
+        minerrLazyFormatter = args[++i];
+      } else if (arg.equals("--minerr_lazy_formatter_url")) {
+        minerrLazyFormatterUrl = args[++i];
+      } else if (arg.equals("--ng_inline_templates")) {
+        inlineTemplates = true;
+      } else if (arg.equals("--ng_template_root")) {
+        templateRoot = args[++i];
+      } else if (arg.equals("--ng_template_module")) {
+        templateModule = args[++i];
+      } else if (arg.equals("--ng_template_manifest")) {
+        templateManifest = args[++i];
+      } else if (arg.equals("--ng_precompile_expressions")) {
+        precompileExpressions = true;
+      } else if (arg.equals("--ng_expression_table")) {
+        expressionTable = args[++i];
+      } else if (arg.equals("--ng_one_time_bindings")) {
+        oneTimeBindings = true;
+      } else if (arg.equals("--ng_generate_externs")) {
+        generateExterns = true;
+      } else if (arg.equals("--ng_externs_output")) {
+        externsOutput = args[++i];
+      } else if (arg.equals("--ng_directive_names")) {
+        directiveNames = true;
+      } else if (arg.equals("--ng_directive_table")) {
+        directiveTable = args[++i];
+      } else if (arg.equals("--ng_dependency_graph")) {
+        dependencyGraph = args[++i];
+      } else if (arg.equals("--ng_annotate_dependencies")) {
+        annotateDependencies = true;
+      } else if (arg.equals("--ng_remove_unused_providers")) {
+        removeUnusedProviders = true;
+      } else if (arg.equals("--ng_bootstrap_module")) {
+        bootstrapModules.add(args[++i]);
+      } else if (arg.equals("--ng_keep_provider")) {
+        keptProviders.add(args[++i]);
+      } else if (arg.equals("--ng_strip_calls")) {
+        stripCalls = true;
+      } else if (arg.equals("--ng_strip_call")) {
+        stripCalls = true;
+        strippedCalls.add(args[++i]);
+      } else if (arg.equals("--ng_prune_locale")) {
+        pruneLocale = true;
+      } else if (arg.equals("--ng_locale")) {
+        requiredLocales.add(args[++i]);
+      } else if (arg.equals("--ng_locale_keep")) {
+        localeConsumers.add(args[++i]);
+      } else if (arg.equals("--ng_define")) {
+        // NAME=value, or just NAME for true.
+        String[] define = args[++i].split("=", 2);
+        featureFlags.put(define[0], define.length > 1 ? define[1] : "true");
+      } else if (arg.equals("--ng_lower_for_each")) {
+        lowerForEach = true;
+      } else if (arg.equals("--ng_inline_intrinsics")) {
+        inlineIntrinsics = true;
+      } else if (arg.equals("--ng_perf_lint")) {
+        performanceLint = true;
+      } else if (arg.equals("--ng_eliminate_arguments")) {
+        eliminateArguments = true;
+      } else if (arg.equals("--ng_hoist_allocations")) {
+        hoistAllocations = true;
+      } else if (arg.equals("--ng_split_modules")) {
+        splitModules = true;
+      } else if (arg.equals("--ng_chunk_manifest")) {
+        chunkManifest = args[++i];
+      } else if (arg.equals("--ng_debug_output")) {
+        debugOutput = args[++i];
+      } else if (arg.equals("--ng_renaming_map_dir")) {
+        renamingMapDirectory = args[++i];
+      } else if (arg.equals("--ng_renaming_target")) {
+        renamingTarget = args[++i];
       } else {
         passthruArgs.add(arg);
       }
     }
 
+    if ((minerrSharedRuntime != null || minerrLazyFormatter != null) && minerrUrl == null) {
+      System.err.println("--minerr_shared_runtime and --minerr_lazy_formatter require --minerr_url");
+      System.exit(-1);
+    }
+    if (minerrSharedRuntime != null && minerrLazyFormatter != null) {
+      System.err.println("--minerr_shared_runtime and --minerr_lazy_formatter can't be combined");
+      System.exit(-1);
+    }
+    if (splitModules && passthruArgs.contains("--module")) {
+      System.err.println("--ng_split_modules can't be combined with --module");
+      System.exit(-1);
+    }
+    if (splitModules && debugOutput != null) {
+      System.err.println("--ng_split_modules can't be combined with --ng_debug_output");
+      System.exit(-1);
+    }
+    if (debugOutput != null && passthruArgs.contains("--module")) {
+      // Both builds would write the same module files.
+      System.err.println("--ng_debug_output can't be combined with --module");
+      System.exit(-1);
+    }
+    if (renamingMapDirectory != null) {
+      for (String arg : passthruArgs) {
+        if (arg.startsWith("--variable_map_") || arg.startsWith("--property_map_")
+            || arg.startsWith("--create_name_map_files")) {
+          System.err.println("--ng_renaming_map_dir can't be combined with " + arg);
+          System.exit(-1);
+        }
+      }
+    }
+
+    if (minerrExtractOnly) {
+      try {
+        System.exit(extractMinerrCatalog(getInputFiles(passthruArgs), minerrErrors,
+            minerrConvertNamespace, minerrConvertFiles) > 0 ? 1 : 0);
+      } catch (IOException e) {
+        System.err.println(e);
+        System.exit(1);
+      }
+    }
+
+    if (renamingMapDirectory != null) {
+      passthruArgs.addAll(createRenamingMapArgs(renamingMapDirectory, renamingTarget));
+    }
+    if (splitModules) {
+      try {
+        passthruArgs = createModuleChunkArgs(passthruArgs, bootstrapModules, chunkManifest);
+      } catch (IOException e) {
+        System.err.println(e);
+        System.exit(1);
+      }
+    }
+
     NgClosureRunner runner = new NgClosureRunner(
         passthruArgs.toArray(new String[]{}),
         minerrPass, minerrErrors, minerrUrl, minerrSeparator,
         minerrJsResourcePath);
+    runner.setMinerrHoistInstances(minerrHoistInstances);
+    runner.setMinerrDedupeThrows(minerrDedupeThrows);
+    runner.setMinerrErrorConversion(minerrConvertNamespace, minerrConvertFiles);
+    runner.setMinerrSharedRuntime(minerrSharedRuntime, minerrSharedRuntimeGlobal);
+    runner.setMinerrLazyFormatter(minerrLazyFormatter, minerrLazyFormatterUrl);
+    runner.setTemplateInlining(inlineTemplates, templateRoot, templateModule, templateManifest);
+    if (precompileExpressions) {
+      runner.setExpressionPrecompilation(expressionTable);
+    }
+    runner.setOneTimeBindings(oneTimeBindings);
+    runner.setExternsGeneration(generateExterns, externsOutput);
+    if (directiveNames) {
+      runner.setDirectiveNameTable(directiveTable);
+    }
+    runner.setDependencyGraph(dependencyGraph);
+    runner.setDependencyAnnotation(annotateDependencies);
+    runner.setUnusedProviderRemoval(removeUnusedProviders, bootstrapModules, keptProviders);
+    runner.setLocalePruning(pruneLocale, requiredLocales, localeConsumers);
+    runner.setFeatureFlags(featureFlags);
+    runner.setForEachLowering(lowerForEach);
+    runner.setIntrinsicInlining(inlineIntrinsics);
+    runner.setPerformanceLint(performanceLint);
+    runner.setArgumentsElimination(eliminateArguments);
+    runner.setAllocationHoisting(hoistAllocations);
+    if (stripCalls) {
+      runner.setCallStripping(
+          strippedCalls.isEmpty() ? CallStrippingPass.DEFAULT_NAMES : strippedCalls);
+    }
 
-    if (runner.shouldRunCompiler()) {
+    if (debugOutput != null) {
+      NgClosureRunner debugRunner = runner.createDebugVariant(
+          createDebugArgs(passthruArgs, debugOutput).toArray(new String[]{}));
+      if (runner.shouldRunCompiler() && debugRunner.shouldRunCompiler()) {
+        System.exit(runInParallel(Arrays.asList(runner, debugRunner)));
+      } else {
+        System.exit(-1);
+      }
+    } else if (runner.shouldRunCompiler()) {
       runner.run();
     } else {
       System.exit(-1);
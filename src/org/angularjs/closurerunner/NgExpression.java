@@ -0,0 +1,460 @@
+package org.angularjs.closurerunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A parsed AngularJS expression, following the grammar of {@code $parse}:
+ * statements separated by ';', filter chains, assignments and the
+ * JavaScript-like operators, literals, member accesses and calls that Angular
+ * supports. Parse errors throw {@link IllegalArgumentException}.
+ */
+class NgExpression {
+
+  enum Kind {
+    STATEMENTS, FILTER, ASSIGN, TERNARY, BINARY, UNARY, LITERAL, NAME, MEMBER,
+    INDEX, CALL, ARRAY, OBJECT
+  }
+
+  static final Set<String> CONSTANTS = new HashSet<String>(
+      Arrays.asList("true", "false", "null", "undefined"));
+
+  final Kind kind;
+  // The operator, identifier, property or filter name for the node.
+  final String name;
+  // The value of a LITERAL.
+  final Object value;
+  final List<NgExpression> children;
+  // The property names of an OBJECT, one for each child.
+  final List<String> keys;
+  // True for the top level of expressions written as '::expr'.
+  final boolean oneTime;
+
+  private NgExpression(Kind kind, String name, Object value, List<NgExpression> children,
+                       List<String> keys, boolean oneTime) {
+    this.kind = kind;
+    this.name = name;
+    this.value = value;
+    this.children = children;
+    this.keys = keys;
+    this.oneTime = oneTime;
+  }
+
+  private NgExpression(Kind kind, String name, Object value, NgExpression... children) {
+    this(kind, name, value, Arrays.asList(children), Collections.<String>emptyList(), false);
+  }
+
+  NgExpression getChild(int i) {
+    return children.get(i);
+  }
+
+  /**
+   * Returns the dotted path for NAME and MEMBER chains, e.g. 'a.b.c', or null
+   * for any other expression.
+   */
+  String getPath() {
+    if (kind == Kind.NAME) {
+      return name;
+    }
+    if (kind == Kind.MEMBER) {
+      String object = getChild(0).getPath();
+      return object != null ? object + "." + name : null;
+    }
+    return null;
+  }
+
+  /**
+   * True for expressions whose value can't change: literals, and operators,
+   * array and object literals made of constants.
+   */
+  boolean isConstant() {
+    return isConstant(Collections.<String>emptySet());
+  }
+
+  /**
+   * True for expressions whose value can't change, where applying one of the
+   * given pure filters to constants also counts as constant.
+   */
+  boolean isConstant(Set<String> pureFilters) {
+    switch (kind) {
+      case LITERAL:
+        return true;
+      case FILTER:
+        // The input and the arguments are the children.
+        return pureFilters.contains(name) && areChildrenConstant(pureFilters);
+      case STATEMENTS:
+      case TERNARY:
+      case BINARY:
+      case UNARY:
+      case ARRAY:
+      case OBJECT:
+        return areChildrenConstant(pureFilters);
+      default:
+        return false;
+    }
+  }
+
+  private boolean areChildrenConstant(Set<String> pureFilters) {
+    for (NgExpression child : children) {
+      if (!child.isConstant(pureFilters)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static NgExpression parse(String text) {
+    boolean oneTime = false;
+    String trimmed = text.trim();
+    if (trimmed.startsWith("::")) {
+      oneTime = true;
+      trimmed = trimmed.substring(2);
+    }
+    Parser parser = new Parser(tokenize(trimmed));
+    NgExpression expression = parser.statements();
+    if (oneTime) {
+      expression = new NgExpression(expression.kind, expression.name, expression.value,
+          expression.children, expression.keys, true);
+    }
+    return expression;
+  }
+
+  private static final String OPERATOR_CHARS = "+-*/%=!<>&|?:;,.()[]{}";
+  private static final List<String> OPERATORS = Arrays.asList(
+      "===", "!==", "==", "!=", "<=", ">=", "&&", "||",
+      "+", "-", "*", "/", "%", "=", "!", "<", ">", "|", "?", ":", ";", ",", ".",
+      "(", ")", "[", "]", "{", "}");
+
+  private static class Token {
+    final String text;
+    final Object value;
+    final boolean identifier;
+    final boolean literal;
+
+    Token(String text, Object value, boolean identifier, boolean literal) {
+      this.text = text;
+      this.value = value;
+      this.identifier = identifier;
+      this.literal = literal;
+    }
+  }
+
+  private static boolean isIdentifierStart(char c) {
+    return Character.isLetter(c) || c == '_' || c == '$';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return isIdentifierStart(c) || Character.isDigit(c);
+  }
+
+  private static List<Token> tokenize(String text) {
+    List<Token> tokens = new ArrayList<Token>();
+    int i = 0;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'' || c == '"') {
+        StringBuilder string = new StringBuilder();
+        int j = i + 1;
+        for (; j < text.length() && text.charAt(j) != c; j++) {
+          char ch = text.charAt(j);
+          if (ch == '\\' && j + 1 < text.length()) {
+            char escape = text.charAt(++j);
+            switch (escape) {
+              case 'n': string.append('\n'); break;
+              case 'f': string.append('\f'); break;
+              case 'r': string.append('\r'); break;
+              case 't': string.append('\t'); break;
+              case 'v': string.append('\u000B'); break;
+              case 'u':
+                if (j + 4 >= text.length()) {
+                  throw new IllegalArgumentException("Invalid unicode escape in " + text);
+                }
+                string.append((char) Integer.parseInt(text.substring(j + 1, j + 5), 16));
+                j += 4;
+                break;
+              default: string.append(escape);
+            }
+          } else {
+            string.append(ch);
+          }
+        }
+        if (j >= text.length()) {
+          throw new IllegalArgumentException("Unterminated quote in " + text);
+        }
+        tokens.add(new Token(text.substring(i, j + 1), string.toString(), false, true));
+        i = j + 1;
+      } else if (Character.isDigit(c)
+          || (c == '.' && i + 1 < text.length() && Character.isDigit(text.charAt(i + 1)))) {
+        int j = i;
+        while (j < text.length() && (Character.isDigit(text.charAt(j)) || text.charAt(j) == '.')) {
+          j++;
+        }
+        if (j < text.length() && (text.charAt(j) == 'e' || text.charAt(j) == 'E')) {
+          j++;
+          if (j < text.length() && (text.charAt(j) == '+' || text.charAt(j) == '-')) {
+            j++;
+          }
+          while (j < text.length() && Character.isDigit(text.charAt(j))) {
+            j++;
+          }
+        }
+        String number = text.substring(i, j);
+        try {
+          tokens.add(new Token(number, Double.valueOf(number), false, true));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid number " + number + " in " + text);
+        }
+        i = j;
+      } else if (isIdentifierStart(c)) {
+        int j = i;
+        while (j < text.length() && isIdentifierPart(text.charAt(j))) {
+          j++;
+        }
+        tokens.add(new Token(text.substring(i, j), null, true, false));
+        i = j;
+      } else if (OPERATOR_CHARS.indexOf(c) >= 0) {
+        String operator = null;
+        for (String candidate : OPERATORS) {
+          if (text.startsWith(candidate, i)) {
+            operator = candidate;
+            break;
+          }
+        }
+        if (operator == null) {
+          throw new IllegalArgumentException("Unexpected " + c + " in " + text);
+        }
+        tokens.add(new Token(operator, null, false, false));
+        i += operator.length();
+      } else {
+        throw new IllegalArgumentException("Unexpected " + c + " in " + text);
+      }
+    }
+    return tokens;
+  }
+
+  private static class Parser {
+    private final List<Token> tokens;
+    private int index;
+
+    Parser(List<Token> tokens) {
+      this.tokens = tokens;
+    }
+
+    private boolean peek(String... expected) {
+      if (index >= tokens.size()) {
+        return false;
+      }
+      Token token = tokens.get(index);
+      if (token.literal) {
+        return false;
+      }
+      for (String text : expected) {
+        if (token.text.equals(text)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private String expect(String... expected) {
+      if (peek(expected)) {
+        return tokens.get(index++).text;
+      }
+      return null;
+    }
+
+    private void consume(String expected) {
+      if (expect(expected) == null) {
+        throw new IllegalArgumentException("Expected " + expected);
+      }
+    }
+
+    NgExpression statements() {
+      List<NgExpression> statements = new ArrayList<NgExpression>();
+      while (index < tokens.size()) {
+        if (expect(";") != null) {
+          continue;
+        }
+        statements.add(filterChain());
+        if (index < tokens.size() && !peek(";")) {
+          throw new IllegalArgumentException("Unexpected " + tokens.get(index).text);
+        }
+      }
+      if (statements.size() == 1) {
+        return statements.get(0);
+      }
+      return new NgExpression(Kind.STATEMENTS, null, null,
+          statements.toArray(new NgExpression[statements.size()]));
+    }
+
+    private NgExpression filterChain() {
+      NgExpression left = expression();
+      while (expect("|") != null) {
+        if (index >= tokens.size() || !tokens.get(index).identifier) {
+          throw new IllegalArgumentException("Expected a filter name");
+        }
+        String filter = tokens.get(index++).text;
+        List<NgExpression> args = new ArrayList<NgExpression>();
+        args.add(left);
+        while (expect(":") != null) {
+          args.add(expression());
+        }
+        left = new NgExpression(Kind.FILTER, filter, null,
+            args.toArray(new NgExpression[args.size()]));
+      }
+      return left;
+    }
+
+    private NgExpression expression() {
+      return assignment();
+    }
+
+    private NgExpression assignment() {
+      NgExpression left = ternary();
+      if (expect("=") != null) {
+        if (left.kind != Kind.NAME && left.kind != Kind.MEMBER && left.kind != Kind.INDEX) {
+          throw new IllegalArgumentException("Expression is not assignable");
+        }
+        return new NgExpression(Kind.ASSIGN, "=", null, left, assignment());
+      }
+      return left;
+    }
+
+    private NgExpression ternary() {
+      NgExpression left = binary(0);
+      if (expect("?") != null) {
+        NgExpression middle = assignment();
+        consume(":");
+        return new NgExpression(Kind.TERNARY, "?", null, left, middle, assignment());
+      }
+      return left;
+    }
+
+    private static final String[][] PRECEDENCE = {
+      {"||"}, {"&&"}, {"==", "!=", "===", "!=="}, {"<", ">", "<=", ">="}, {"+", "-"},
+      {"*", "/", "%"}
+    };
+
+    private NgExpression binary(int level) {
+      if (level == PRECEDENCE.length) {
+        return unary();
+      }
+      NgExpression left = binary(level + 1);
+      String operator;
+      while ((operator = expect(PRECEDENCE[level])) != null) {
+        left = new NgExpression(Kind.BINARY, operator, null, left, binary(level + 1));
+      }
+      return left;
+    }
+
+    private NgExpression unary() {
+      String operator = expect("+", "-", "!");
+      if (operator != null) {
+        return new NgExpression(Kind.UNARY, operator, null, unary());
+      }
+      return primary();
+    }
+
+    private NgExpression primary() {
+      NgExpression primary;
+      if (index >= tokens.size()) {
+        throw new IllegalArgumentException("Unexpected end of expression");
+      }
+      Token token = tokens.get(index);
+      if (expect("(") != null) {
+        primary = filterChain();
+        consume(")");
+      } else if (expect("[") != null) {
+        primary = arrayDeclaration();
+      } else if (expect("{") != null) {
+        primary = object();
+      } else if (token.literal) {
+        index++;
+        primary = new NgExpression(Kind.LITERAL, null, token.value);
+      } else if (token.identifier) {
+        index++;
+        if (CONSTANTS.contains(token.text)) {
+          Object value = token.text.equals("true") ? Boolean.TRUE
+              : token.text.equals("false") ? Boolean.FALSE : null;
+          primary = new NgExpression(Kind.LITERAL, token.text, value);
+        } else {
+          primary = new NgExpression(Kind.NAME, token.text, null);
+        }
+      } else {
+        throw new IllegalArgumentException("Unexpected " + token.text);
+      }
+
+      while (true) {
+        if (expect("(") != null) {
+          List<NgExpression> args = new ArrayList<NgExpression>();
+          args.add(primary);
+          if (!peek(")")) {
+            do {
+              args.add(expression());
+            } while (expect(",") != null);
+          }
+          consume(")");
+          primary = new NgExpression(Kind.CALL, null, null,
+              args.toArray(new NgExpression[args.size()]));
+        } else if (expect("[") != null) {
+          NgExpression key = expression();
+          consume("]");
+          primary = new NgExpression(Kind.INDEX, null, null, primary, key);
+        } else if (expect(".") != null) {
+          if (index >= tokens.size() || !tokens.get(index).identifier) {
+            throw new IllegalArgumentException("Expected a property name");
+          }
+          primary = new NgExpression(Kind.MEMBER, tokens.get(index++).text, null, primary);
+        } else {
+          return primary;
+        }
+      }
+    }
+
+    private NgExpression arrayDeclaration() {
+      List<NgExpression> elements = new ArrayList<NgExpression>();
+      if (!peek("]")) {
+        do {
+          if (peek("]")) {
+            break;
+          }
+          elements.add(expression());
+        } while (expect(",") != null);
+      }
+      consume("]");
+      return new NgExpression(Kind.ARRAY, null, null,
+          elements.toArray(new NgExpression[elements.size()]));
+    }
+
+    private NgExpression object() {
+      List<NgExpression> values = new ArrayList<NgExpression>();
+      List<String> keys = new ArrayList<String>();
+      if (!peek("}")) {
+        do {
+          if (peek("}")) {
+            break;
+          }
+          if (index >= tokens.size()) {
+            throw new IllegalArgumentException("Unexpected end of expression");
+          }
+          Token token = tokens.get(index++);
+          if (token.identifier || token.value instanceof String) {
+            keys.add(token.identifier ? token.text : (String) token.value);
+          } else {
+            throw new IllegalArgumentException("Invalid object key " + token.text);
+          }
+          consume(":");
+          values.add(expression());
+        } while (expect(",") != null);
+      }
+      consume("}");
+      return new NgExpression(Kind.OBJECT, null, null, values, keys, false);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Makes the bindings in templates whose value can't change one-time, so that
+ * their watchers are removed after the first digest, e.g.
+ * <h1>{{'Welcome' | uppercase}}</h1>
+ * to
+ * <h1>{{::'Welcome' | uppercase}}</h1>
+ *
+ * Bindings are constant if they only use literals and operators, and filters
+ * that are pure: the built-in ones, and registered filters that aren't marked
+ * {@code $stateful}. Interpolations and the attributes of built-in directives
+ * that watch their expression are rewritten, in templates registered with
+ * {@code $templateCache} and in inline {@code template} properties. Templates
+ * using ng-non-bindable are left alone. One-time bindings need Angular 1.3.
+ */
+class OneTimeBindingPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Set<String> pureFilters;
+  private List<Node> templates;
+  private int bindings, rewritten;
+
+  static final Set<String> BUILTIN_FILTERS = new HashSet<String>(Arrays.asList(
+      "currency", "date", "filter", "json", "limitTo", "lowercase", "number", "orderBy",
+      "uppercase"));
+
+  // Built-in directives that watch the value of their attribute.
+  static final Set<String> WATCHING_DIRECTIVES = new HashSet<String>(Arrays.asList(
+      "ngBind", "ngChecked", "ngClass", "ngClassEven", "ngClassOdd", "ngDisabled", "ngHide",
+      "ngIf", "ngOpen", "ngReadonly", "ngRequired", "ngSelected", "ngShow", "ngStyle",
+      "ngSwitch"));
+
+  public OneTimeBindingPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+    pureFilters = new HashSet<String>(BUILTIN_FILTERS);
+  }
+
+  private static boolean isStateful(Node ast) {
+    if (ast.isGetProp() && ast.getLastChild().getString().equals("$stateful")) {
+      return true;
+    }
+    for (Node child : ast.children()) {
+      if (isStateful(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the registered filters whose factory doesn't mark them as stateful,
+   * and removes the ones that can't be checked.
+   */
+  private void collectFilters(Node root) {
+    AngularModules modules = new AngularModules();
+    modules.collect(compiler, root);
+    for (Registration registration : modules.registrations) {
+      if (!registration.type.equals("filter") || registration.name == null) {
+        continue;
+      }
+      Node function = modules.getFunction(registration.definition);
+      if (function != null && !isStateful(function)) {
+        pureFilters.add(registration.name);
+      } else {
+        pureFilters.remove(registration.name);
+      }
+    }
+  }
+
+  /**
+   * Returns the expression to bind instead of the given one, or null if it
+   * should stay as it is.
+   */
+  private String makeOneTime(String text) {
+    String expression = AngularTemplates.unescapeHtml(text);
+    if (expression.trim().startsWith("::")) {
+      return null;
+    }
+    bindings++;
+    try {
+      if (!NgExpression.parse(expression).isConstant(pureFilters)) {
+        return null;
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    rewritten++;
+    return "::" + text;
+  }
+
+  private String rewriteAttributes(String attributes) {
+    Matcher attribute = AngularTemplates.ATTRIBUTE_REGEX.matcher(attributes);
+    StringBuffer result = new StringBuffer();
+    while (attribute.find()) {
+      int group = attribute.group(2) != null ? 2 : 3;
+      String value = attribute.group(group);
+      String oneTime = null;
+      if (WATCHING_DIRECTIVES.contains(AngularTemplates.normalizeDirectiveName(attribute.group(1)))
+          && !value.contains("{{")) {
+        oneTime = makeOneTime(value);
+      }
+      String replacement = oneTime == null ? attribute.group()
+          : attributes.substring(attribute.start(), attribute.start(group)) + oneTime
+              + attributes.substring(attribute.end(group), attribute.end());
+      attribute.appendReplacement(result, Matcher.quoteReplacement(replacement));
+    }
+    attribute.appendTail(result);
+    return result.toString();
+  }
+
+  /**
+   * Returns a template with its constant bindings made one-time.
+   */
+  String rewriteTemplate(String html) {
+    if (html.contains("non-bindable")) {
+      return html;
+    }
+    Matcher tag = AngularTemplates.TAG_REGEX.matcher(html);
+    StringBuffer result = new StringBuffer();
+    while (tag.find()) {
+      String replacement = "<" + tag.group(1) + rewriteAttributes(tag.group(2)) + ">";
+      tag.appendReplacement(result, Matcher.quoteReplacement(replacement));
+    }
+    tag.appendTail(result);
+
+    Matcher interpolation = AngularTemplates.INTERPOLATION_REGEX.matcher(result.toString());
+    StringBuffer rewrittenHtml = new StringBuffer();
+    while (interpolation.find()) {
+      String oneTime = makeOneTime(interpolation.group(1));
+      String replacement = oneTime == null ? interpolation.group() : "{{" + oneTime + "}}";
+      interpolation.appendReplacement(rewrittenHtml, Matcher.quoteReplacement(replacement));
+    }
+    interpolation.appendTail(rewrittenHtml);
+    return rewrittenHtml.toString();
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    collectFilters(root);
+    templates = new ArrayList<Node>();
+    bindings = 0;
+    rewritten = 0;
+    NodeTraversal.traverse(compiler, root, this);
+
+    for (Node template : templates) {
+      String html = rewriteTemplate(template.getString());
+      if (!html.equals(template.getString())) {
+        template.setString(html);
+      }
+    }
+    if (rewritten > 0) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("bindings: made " + rewritten + " of " + bindings
+          + " bindings one-time.");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (AngularTemplates.isTemplateCachePut(n)) {
+      // $templateCache.put('url', 'html')
+      templates.add(n.getChildAtIndex(2));
+    } else if (n.isStringKey() && n.getString().equals("template")
+        && n.getFirstChild().isString()) {
+      // {template: 'html'}
+      templates.add(n.getFirstChild());
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.DiagnosticType;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.Node;
+
+import java.io.PrintStream;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Reports patterns that make digests slow:
+ * - deep watches, i.e. $watch(expression, listener, true),
+ * - $apply and $digest calls in loops,
+ * - watches registered in loops or in the listener of another watch,
+ * - ng-repeat without track by in templates.
+ *
+ * Loops include the callbacks of forEach calls. This pass only checks the
+ * code and doesn't change it.
+ */
+class PerformanceLintPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private PrintStream reportOutput;
+  private Map<DiagnosticType, Integer> counts;
+
+  static final DiagnosticType DEEP_WATCH_WARNING =
+      DiagnosticType.warning("JSC_NG_DEEP_WATCH_WARNING",
+          "Deep watch copies and compares the whole value on every digest.");
+
+  static final DiagnosticType DIGEST_IN_LOOP_WARNING =
+      DiagnosticType.warning("JSC_NG_DIGEST_IN_LOOP_WARNING",
+          "{0} in a loop runs a digest for every iteration.");
+
+  static final DiagnosticType WATCH_IN_LOOP_WARNING =
+      DiagnosticType.warning("JSC_NG_WATCH_IN_LOOP_WARNING",
+          "{0} in a loop registers a watcher for every iteration.");
+
+  static final DiagnosticType WATCH_IN_LISTENER_WARNING =
+      DiagnosticType.warning("JSC_NG_WATCH_IN_LISTENER_WARNING",
+          "{0} in a watch listener registers a watcher every time the value changes.");
+
+  static final DiagnosticType REPEAT_WITHOUT_TRACK_BY_WARNING =
+      DiagnosticType.warning("JSC_NG_REPEAT_WITHOUT_TRACK_BY_WARNING",
+          "ng-repeat=\"{0}\" has no track by expression.");
+
+  static final Set<String> WATCH_METHODS = new HashSet<String>(Arrays.asList(
+      "$watch", "$watchCollection", "$watchGroup"));
+
+  static final Set<String> DIGEST_METHODS = new HashSet<String>(Arrays.asList(
+      "$apply", "$digest"));
+
+  public PerformanceLintPass(AbstractCompiler compiler, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.reportOutput = reportOutput;
+  }
+
+  private void report(NodeTraversal t, Node n, DiagnosticType type, String... arguments) {
+    compiler.report(t.makeError(n, type, arguments));
+    Integer count = counts.get(type);
+    counts.put(type, count == null ? 1 : count + 1);
+  }
+
+  private static String getMethodName(Node call) {
+    Node callee = call.getFirstChild();
+    return callee.isGetProp() ? callee.getLastChild().getString() : null;
+  }
+
+  /**
+   * True for functions passed as the callback of a forEach call.
+   */
+  private static boolean isForEachCallback(Node function) {
+    Node parent = function.getParent();
+    if (!parent.isCall() || !parent.getFirstChild().isQualifiedName()) {
+      return false;
+    }
+    String callee = parent.getFirstChild().getQualifiedName();
+    if (callee.equals("forEach") || callee.equals("angular.forEach")) {
+      return parent.getChildAtIndex(2) == function;
+    }
+    return callee.endsWith(".forEach") && parent.getChildAtIndex(1) == function;
+  }
+
+  private static boolean isWatchListener(Node function) {
+    Node parent = function.getParent();
+    return parent.isCall() && WATCH_METHODS.contains(getMethodName(parent))
+        && parent.getChildAtIndex(2) == function;
+  }
+
+  private static boolean isInLoop(Node n) {
+    for (Node ancestor = n.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+      if (ancestor.isFor() || ancestor.isWhile() || ancestor.isDo()) {
+        return true;
+      }
+      if (ancestor.isFunction()) {
+        return isForEachCallback(ancestor);
+      }
+    }
+    return false;
+  }
+
+  private static Node getEnclosingFunction(Node n) {
+    for (Node ancestor = n.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+      if (ancestor.isFunction()) {
+        return ancestor;
+      }
+    }
+    return null;
+  }
+
+  private void checkTemplate(NodeTraversal t, Node n, String html) {
+    Matcher tag = AngularTemplates.TAG_REGEX.matcher(html);
+    while (tag.find()) {
+      Matcher attribute = AngularTemplates.ATTRIBUTE_REGEX.matcher(tag.group(2));
+      while (attribute.find()) {
+        String name = AngularTemplates.normalizeDirectiveName(attribute.group(1));
+        String value = AngularTemplates.unescapeHtml(
+            attribute.group(2) != null ? attribute.group(2) : attribute.group(3));
+        if ((name.equals("ngRepeat") || name.equals("ngRepeatStart"))
+            && !value.matches("[\\s\\S]*\\strack\\s+by\\s[\\s\\S]*")) {
+          report(t, n, REPEAT_WITHOUT_TRACK_BY_WARNING, value);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    counts = new LinkedHashMap<DiagnosticType, Integer>();
+    NodeTraversal.traverse(compiler, root, this);
+
+    if (reportOutput != null) {
+      int total = 0;
+      StringBuilder summary = new StringBuilder();
+      for (Map.Entry<DiagnosticType, Integer> entry : counts.entrySet()) {
+        total += entry.getValue();
+        summary.append(summary.length() > 0 ? ", " : "").append(entry.getKey().key)
+            .append(": ").append(entry.getValue());
+      }
+      reportOutput.println("lint: found " + total + " performance issues"
+          + (total > 0 ? " (" + summary + ")" : "") + ".");
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isString() && n.getString().contains("<")) {
+      checkTemplate(t, n, n.getString());
+      return;
+    }
+    if (!n.isCall()) {
+      return;
+    }
+    String method = getMethodName(n);
+    if (WATCH_METHODS.contains(method)) {
+      if (method.equals("$watch") && n.getChildCount() == 4 && n.getLastChild().isTrue()) {
+        report(t, n, DEEP_WATCH_WARNING);
+      }
+      Node function = getEnclosingFunction(n);
+      if (isInLoop(n)) {
+        report(t, n, WATCH_IN_LOOP_WARNING, method);
+      } else if (function != null && isWatchListener(function)) {
+        report(t, n, WATCH_IN_LISTENER_WARNING, method);
+      }
+    } else if (DIGEST_METHODS.contains(method) && isInLoop(n)) {
+      report(t, n, DIGEST_IN_LOOP_WARNING, method);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.angularjs.closurerunner;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.DiagnosticType;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.IR;
+import com.google.javascript.rhino.Node;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Inlines the templates referenced by constant {@code templateUrl} properties,
+ * e.g. in directive and route definitions, by registering them with
+ * {@code $templateCache} from a run block appended to the last script.
+ */
+class TemplateCachePass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  final Pattern commentRegex = Pattern.compile("<!--(?!\\s*directive:)(?!\\[if)[\\s\\S]*?-->");
+  final Pattern preformattedRegex = Pattern.compile("<(pre|textarea|script)\\b",
+      Pattern.CASE_INSENSITIVE);
+  private File templateRoot;
+  private String moduleName;
+  private PrintStream manifestOutput;
+  private Map<String, Node> templateUrls;
+
+  static final DiagnosticType TEMPLATE_NOT_FOUND_WARNING =
+      DiagnosticType.warning("JSC_TEMPLATE_NOT_FOUND_WARNING",
+          "Can't read template {0}, it will be loaded at runtime.");
+
+  public TemplateCachePass(AbstractCompiler compiler, File templateRoot, String moduleName,
+                           PrintStream manifestOutput) {
+    this.compiler = compiler;
+    this.templateRoot = templateRoot;
+    this.moduleName = moduleName;
+    this.manifestOutput = manifestOutput;
+    templateUrls = new LinkedHashMap<String, Node>();
+  }
+
+  String minifyHtml(String html) {
+    String minified = commentRegex.matcher(html).replaceAll("");
+    // Whitespace is significant in preformatted elements, so leave those
+    // templates alone.
+    if (!preformattedRegex.matcher(minified).find()) {
+      minified = minified.replaceAll("\\s+", " ");
+    }
+    return minified.trim();
+  }
+
+  private File getTemplateFile(String url) {
+    return new File(templateRoot, url.startsWith("/") ? url.substring(1) : url);
+  }
+
+  private Node createRegistration(Map<String, String> templates) {
+    // angular.module('<module>').run(['$templateCache', function($templateCache) {
+    //   $templateCache.put('<url>', '<html>'); ...
+    // }]);
+    Node body = IR.block();
+    for (Map.Entry<String, String> template : templates.entrySet()) {
+      body.addChildToBack(IR.exprResult(IR.call(
+          IR.getprop(IR.name("$templateCache"), IR.string("put")),
+          IR.string(template.getKey()),
+          IR.string(template.getValue()))));
+    }
+    Node runBlock = IR.function(IR.name(""), IR.paramList(IR.name("$templateCache")), body);
+    Node module = IR.call(IR.getprop(IR.name("angular"), IR.string("module")),
+        IR.string(moduleName));
+    return IR.exprResult(IR.call(IR.getprop(module, IR.string("run")),
+        IR.arraylit(IR.string("$templateCache"), runBlock)));
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    NodeTraversal.traverse(compiler, root, this);
+    Map<String, String> templates = new LinkedHashMap<String, String>();
+    // Sorted, so that the manifest is the same from one build to the next.
+    Map<String, Object> manifest = new TreeMap<String, Object>();
+
+    for (Map.Entry<String, Node> entry : templateUrls.entrySet()) {
+      String url = entry.getKey();
+      File file = getTemplateFile(url);
+      String html;
+      try {
+        html = Files.toString(file, Charsets.UTF_8);
+      } catch (IOException e) {
+        compiler.report(JSError.make(entry.getValue(), TEMPLATE_NOT_FOUND_WARNING, url));
+        continue;
+      }
+      String minified = minifyHtml(html);
+      templates.put(url, minified);
+
+      Map<String, Object> info = new LinkedHashMap<String, Object>();
+      info.put("file", file.getPath());
+      info.put("originalSize", html.getBytes(Charsets.UTF_8).length);
+      info.put("inlinedSize", minified.getBytes(Charsets.UTF_8).length);
+      manifest.put(url, info);
+    }
+
+    if (!templates.isEmpty()) {
+      Node registration = createRegistration(templates);
+      Node script = root.getLastChild();
+      registration.useSourceInfoIfMissingFromForTree(script);
+      script.addChildToBack(registration);
+      compiler.reportCodeChange();
+    }
+
+    if (manifestOutput != null) {
+      manifestOutput.print(new JSONObject(manifest).toString());
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    // Only true for properties of the form
+    // templateUrl: 'path/to/template.html'
+    if (n.isStringKey() && n.getString().equals("templateUrl")
+        && n.getFirstChild().isString()) {
+      String url = n.getFirstChild().getString();
+      if (!templateUrls.containsKey(url)) {
+        templateUrls.put(url, n);
+      }
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package org.angularjs.closurerunner;
+
+import com.google.common.base.Joiner;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.NodeTraversal;
+import com.google.javascript.jscomp.NodeTraversal.AbstractPostOrderCallback;
+
+import com.google.javascript.rhino.Node;
+
+import org.angularjs.closurerunner.AngularModules.Registration;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes registrations that nothing uses, along with the functions defined
+ * inline in them.
+ *
+ * The modules loaded are the bootstrap modules and everything they require,
+ * or every module if no bootstrap modules are given. Registrations on other
+ * modules are removed. Within the loaded modules, the roots are config and
+ * run blocks, controllers, animations, registrations made on the provider
+ * services directly, the names to keep, directives and filters used in
+ * templates (any string that contains a tag), and registrations whose name
+ * appears as a string literal outside of a registration or an annotation.
+ * Everything the roots depend on is kept, as is everything injected into the
+ * other functions the injector calls, like the $get of a provider and the
+ * controller of a directive. If some {@code templateUrl} isn't in
+ * {@code $templateCache}, all directives and filters are kept, as the
+ * template can't be checked. Markup outside the compiled code, like the host
+ * page index.html, isn't scanned, so the directives and filters only it uses
+ * have to be kept by name; the report lists the ones removed.
+ *
+ * If the dependencies of a kept registration or of an injected function can't
+ * be determined, or services are looked up with $injector.get by a name that
+ * isn't constant, nothing is removed.
+ */
+class UnusedProviderPass extends AbstractPostOrderCallback implements CompilerPass {
+  final AbstractCompiler compiler;
+  private List<String> bootstrapModules;
+  private Set<String> keep;
+  private PrintStream reportOutput;
+  private AngularModules modules;
+  private Set<String> usedNames;
+  private Set<Node> annotationStrings;
+  private Set<String> templateUrls;
+  private Set<String> cachedTemplates;
+  private List<Node> injectionSites;
+  private boolean hasDynamicLookups;
+
+  static final Set<String> LOOKUP_METHODS = new HashSet<String>(Arrays.asList("get", "has"));
+
+  public UnusedProviderPass(AbstractCompiler compiler, List<String> bootstrapModules,
+                            List<String> keep, PrintStream reportOutput) {
+    this.compiler = compiler;
+    this.bootstrapModules = bootstrapModules;
+    this.keep = new HashSet<String>(keep);
+    this.reportOutput = reportOutput;
+  }
+
+  private Set<String> getLoadedModules() {
+    Set<String> loaded = new HashSet<String>();
+    if (bootstrapModules.isEmpty()) {
+      loaded.addAll(modules.moduleRequires.keySet());
+      return loaded;
+    }
+    LinkedList<String> queue = new LinkedList<String>(bootstrapModules);
+    while (!queue.isEmpty()) {
+      String module = queue.removeFirst();
+      if (loaded.add(module) && modules.moduleRequires.containsKey(module)) {
+        queue.addAll(modules.moduleRequires.get(module));
+      }
+    }
+    return loaded;
+  }
+
+  private boolean isRoot(Registration registration) {
+    String type = registration.type;
+    if (registration.module == null || type.equals("config") || type.equals("run")
+        || type.equals("controller") || type.equals("animation")) {
+      return true;
+    }
+    if (keep.contains(registration.name)) {
+      return true;
+    }
+    if (type.equals("directive") || type.equals("filter")) {
+      return !cachedTemplates.containsAll(templateUrls)
+          || usedNames.contains(type + ":" + registration.name);
+    }
+    return usedNames.contains(registration.name);
+  }
+
+  /**
+   * Adds the registrations in the loaded modules that provide the given names
+   * to the queue.
+   */
+  private void addProviders(Set<String> names, Set<String> loaded,
+                            List<Registration> queue) {
+    for (String name : names) {
+      String service = name.endsWith("Provider")
+          ? name.substring(0, name.length() - "Provider".length()) : null;
+      for (Registration candidate : modules.registrations) {
+        if (candidate.module != null && !loaded.contains(candidate.module)) {
+          continue;
+        }
+        if (name.equals(candidate.getInjectableName())
+            || (service != null && service.equals(candidate.name)
+                && AngularModules.SERVICE_TYPES.contains(candidate.type))
+            || (candidate.type.equals("decorator") && name.equals(candidate.name))) {
+          queue.add(candidate);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the registrations in the loaded modules that are reachable from
+   * the roots and the injection sites, or null if their dependencies can't be
+   * determined.
+   */
+  private Set<Registration> getReachableRegistrations(Set<String> loaded) {
+    if (hasDynamicLookups) {
+      return null;
+    }
+    Set<Registration> reachable = new HashSet<Registration>();
+    LinkedList<Registration> queue = new LinkedList<Registration>();
+    for (Registration registration : modules.registrations) {
+      if ((registration.module == null || loaded.contains(registration.module))
+          && isRoot(registration)) {
+        queue.add(registration);
+      }
+    }
+    for (Node site : injectionSites) {
+      if (site.isString()) {
+        // {controller: 'MainController'} refers to a registered controller.
+        continue;
+      }
+      List<String> names = modules.getInjectedNames(site);
+      if (names == null) {
+        return null;
+      }
+      addProviders(new HashSet<String>(names), loaded, queue);
+    }
+
+    while (!queue.isEmpty()) {
+      Registration registration = queue.removeFirst();
+      if (!reachable.add(registration)) {
+        continue;
+      }
+      List<String> dependencies = modules.getDependencies(registration);
+      if (dependencies == null) {
+        return null;
+      }
+      Set<String> names = new HashSet<String>(dependencies);
+      if (registration.type.equals("decorator")) {
+        names.add(registration.name);
+      }
+      addProviders(names, loaded, queue);
+    }
+    return reachable;
+  }
+
+  /**
+   * Removes a registration, returning an estimate of the bytes saved.
+   */
+  private int remove(Registration registration) {
+    if (registration.key != null) {
+      int size = CodeSizeEstimator.estimateSize(registration.key);
+      registration.key.detachFromParent();
+      return size;
+    }
+    Node call = registration.call;
+    Node receiver = call.getFirstChild().getFirstChild();
+    int size = CodeSizeEstimator.estimateSize(call) - CodeSizeEstimator.estimateSize(receiver);
+    receiver.detachFromParent();
+    call.getParent().replaceChild(call, receiver);
+    if (receiver.isName() && receiver.getParent().isExprResult()) {
+      // app.factory(...); leaves a statement without effect.
+      receiver.getParent().detachFromParent();
+    }
+    return size;
+  }
+
+  @Override
+  public void process(Node externs, Node root) {
+    modules = new AngularModules();
+    modules.collect(compiler, root);
+    usedNames = new HashSet<String>();
+    annotationStrings = new HashSet<Node>();
+    templateUrls = new HashSet<String>();
+    cachedTemplates = new HashSet<String>();
+    injectionSites = new ArrayList<Node>();
+    hasDynamicLookups = false;
+    for (Registration registration : modules.registrations) {
+      if (registration.call.getChildCount() == 3) {
+        annotationStrings.add(registration.call.getChildAtIndex(1));
+      }
+      if (registration.definition.isArrayLit()) {
+        for (Node element : registration.definition.children()) {
+          annotationStrings.add(element);
+        }
+      }
+    }
+    NodeTraversal.traverse(compiler, root, this);
+
+    Set<String> loaded = getLoadedModules();
+    Set<Registration> reachable = getReachableRegistrations(loaded);
+    if (reachable == null) {
+      if (reportOutput != null) {
+        reportOutput.println("providers: can't determine all dependencies, "
+            + "no registrations removed.");
+      }
+      return;
+    }
+
+    List<Registration> unused = new ArrayList<Registration>();
+    for (Registration registration : modules.registrations) {
+      if (!reachable.contains(registration)) {
+        unused.add(registration);
+      }
+    }
+    int bytes = 0;
+    List<String> markupNames = new ArrayList<String>();
+    for (Registration registration : unused) {
+      bytes += remove(registration);
+      if (reportOutput != null) {
+        reportOutput.println("providers: removed " + registration + " from module '"
+            + registration.module + "'.");
+      }
+      if (registration.type.equals("directive") || registration.type.equals("filter")) {
+        markupNames.add(registration.name);
+      }
+    }
+    if (!unused.isEmpty()) {
+      compiler.reportCodeChange();
+    }
+    if (reportOutput != null) {
+      reportOutput.println("providers: removed " + unused.size()
+          + " unused registrations, saving about " + bytes + " bytes.");
+      if (!markupNames.isEmpty()) {
+        reportOutput.println("providers: the host page isn't scanned, keep any of "
+            + Joiner.on(", ").join(markupNames) + " it uses with --ng_keep_provider.");
+      }
+    }
+  }
+
+  @Override
+  public void visit(NodeTraversal t, Node n, Node parent) {
+    if (n.isStringKey() && n.getString().equals("templateUrl") && n.getFirstChild().isString()) {
+      templateUrls.add(n.getFirstChild().getString());
+    } else if (AngularTemplates.isTemplateCachePut(n)) {
+      cachedTemplates.add(n.getChildAtIndex(1).getString());
+    }
+    injectionSites.addAll(AngularModules.getInjectionSites(n));
+    if (AngularModules.isInjectorCall(n, LOOKUP_METHODS)
+        && (n.getChildCount() < 2 || !n.getChildAtIndex(1).isString())) {
+      // $injector.get(name)
+      hasDynamicLookups = true;
+    }
+    if (!n.isString() || annotationStrings.contains(n)) {
+      return;
+    }
+    if (parent.isArrayLit() && parent.getParent().isAssign()
+        && parent.getParent().getFirstChild().isGetProp()
+        && parent.getParent().getFirstChild().getLastChild().getString().equals("$inject")) {
+      // Strings in Controller.$inject = [...] are annotations too.
+      return;
+    }
+    String value = n.getString();
+    usedNames.add(value);
+    // $filter('name')
+    usedNames.add("filter:" + value);
+    if (value.contains("<")) {
+      for (String directive : AngularTemplates.extractDirectiveNames(value)) {
+        usedNames.add("directive:" + directive);
+      }
+    }
+    if (value.contains("|")) {
+      // Templates, and expressions passed to $parse or $watch, may use filters.
+      for (String filter : AngularTemplates.extractFilterNames(value)) {
+        usedNames.add("filter:" + filter);
+      }
+    }
+  }
+}
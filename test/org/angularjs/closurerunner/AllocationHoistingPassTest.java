@@ -0,0 +1,101 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link AllocationHoistingPass}.
+ */
+public class AllocationHoistingPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public AllocationHoistingPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new AllocationHoistingPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testAllocationHoistingPassHoistsFunctionsAndRegexes() {
+    test("(function () {\n"
+        +"function minErr(module) {\n"
+        +"  var stringify = function (arg) { return arg.replace(/ \\{[\\s\\S]*$/, ''); };\n"
+        +"  return function (arg) { return module + stringify(arg); };\n"
+        +"}\n"
+        +"})();",
+        "(function () {\n"
+        +"var stringify$0 = function (arg) { return arg.replace(regex, ''); };\n"
+        +"var regex = / \\{[\\s\\S]*$/;\n"
+        +"function minErr(module) {\n"
+        +"  var stringify = stringify$0;\n"
+        +"  return function (arg) { return module + stringify(arg); };\n"
+        +"}\n"
+        +"})();");
+    assertEquals("allocations: hoisted 1 of 2 inner functions and 1 regular expressions.\n",
+        reportOutput.toString());
+  }
+
+  public void testAllocationHoistingPassUsesTheModuleScope() {
+    test("(function (window) {\n"
+        +"  var lowercase = function (s) { return s.toLowerCase(); };\n"
+        +"  function trim(s) { return s.replace(/^\\s+/, '').replace(/^\\s+/i, ''); }\n"
+        +"  function sortBy(list) {\n"
+        +"    return list.sort(function (a, b) { return window.compare(a, b); });\n"
+        +"  }\n"
+        +"  function isEmpty(s) { return /^\\s+/.test(s); }\n"
+        +"})(window);",
+        "(function (window) {\n"
+        +"  var callback = function (a, b) { return window.compare(a, b); };\n"
+        +"  var regex$0 = /^\\s+/i;\n"
+        +"  var regex = /^\\s+/;\n"
+        +"  var lowercase = function (s) { return s.toLowerCase(); };\n"
+        +"  function trim(s) { return s.replace(regex, '').replace(regex$0, ''); }\n"
+        +"  function sortBy(list) {\n"
+        +"    return list.sort(callback);\n"
+        +"  }\n"
+        +"  function isEmpty(s) { return regex.test(s); }\n"
+        +"})(window);");
+  }
+
+  public void testAllocationHoistingPassKeepsAllocationsOutsideOfAModuleScope() {
+    // Hoisting would add globals like regex and callback to the page.
+    testSame("function trim(s) { return s.replace(/^\\s+/, ''); }\n"
+        +"function sortBy(list) { return list.sort(function (a, b) { return a - b; }); }");
+    assertEquals("allocations: hoisted 0 of 0 inner functions and 0 regular expressions.\n",
+        reportOutput.toString());
+  }
+
+  public void testAllocationHoistingPassKeepsEscapingAndCapturingAllocations() {
+    testSame("(function () {\n"
+        +"function f(x) {\n"
+        +"  var g = function () { return 1; };\n"
+        +"  var h = function () { return x; };\n"
+        +"  element.on('click', function () {});\n"
+        +"  var global = /a/g;\n"
+        +"  return [g, h(), global];\n"
+        +"}\n"
+        +"})();");
+    assertEquals("allocations: hoisted 0 of 3 inner functions and 0 regular expressions.\n",
+        reportOutput.toString());
+  }
+}
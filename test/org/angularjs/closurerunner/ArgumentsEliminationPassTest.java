@@ -0,0 +1,86 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link ArgumentsEliminationPass}.
+ */
+public class ArgumentsEliminationPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public ArgumentsEliminationPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new ArgumentsEliminationPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testArgumentsEliminationPassRewritesTheMinerrRuntime() {
+    test("function minErr(module) {\n"
+        +"  return function () {\n"
+        +"    var code = arguments[0], message = module + code, i;\n"
+        +"    for (i = 1; i < arguments.length; i++) {\n"
+        +"      message = message + (i == 1 ? '?' : '&') + 'p' + (i-1) + '=' + arguments[i];\n"
+        +"    }\n"
+        +"    return new Error(message);\n"
+        +"  };\n"
+        +"}",
+        "function minErr(module) {\n"
+        +"  return function (arg0) {\n"
+        +"    var rest = Array.prototype.slice.call(arguments, 1);\n"
+        +"    var code = arg0, message = module + code, i;\n"
+        +"    for (i = 1; i < rest.length + 1; i++) {\n"
+        +"      message = message + (i == 1 ? '?' : '&') + 'p' + (i-1) + '=' + rest[i - 1];\n"
+        +"    }\n"
+        +"    return new Error(message);\n"
+        +"  };\n"
+        +"}");
+    assertEquals("arguments: rewrote 1 of 1 functions using arguments.\n",
+        reportOutput.toString());
+  }
+
+  public void testArgumentsEliminationPassUsesExistingParameters() {
+    test("function f(a) { return arguments[0] + arguments[2]; }\n"
+        +"function g() { for (var i = 0; i < arguments.length; i++) { h(arguments[i]); } }",
+        "function f(a, arg1, arg2) { return a + arg2; }\n"
+        +"function g() {\n"
+        +"  var rest = Array.prototype.slice.call(arguments, 0);\n"
+        +"  for (var i = 0; i < rest.length; i++) { h(rest[i]); }\n"
+        +"}");
+  }
+
+  public void testArgumentsEliminationPassKeepsUnsupportedUses() {
+    testSame("function f(a) { a = 1; return arguments[0]; }\n"
+        +"function g() { return arguments.length; }\n"
+        +"function h() { return fn.apply(this, arguments); }\n"
+        +"function k() { arguments[0](); }\n"
+        +"function m() { for (var i = 1; i < arguments.length; i++) { i++; x(arguments[i]); } }\n"
+        +"function n() {\n"
+        +"  if (arguments.length === 0) return 'none';\n"
+        +"  for (var i = 1; i < arguments.length; i++) { x(arguments[i]); }\n"
+        +"}");
+    assertEquals("arguments: rewrote 0 of 6 functions using arguments.\n",
+        reportOutput.toString());
+  }
+}
@@ -0,0 +1,66 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link CallStrippingPass}.
+ */
+public class CallStrippingPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public CallStrippingPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new CallStrippingPass(compiler, CallStrippingPass.DEFAULT_NAMES,
+        new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testCallStrippingPassRemovesCallStatements() {
+    test("function f($log, fn) {\n"
+        +"  assertArgFn(fn, 'fn');\n"
+        +"  this.$log.debug('calling ' + fn.name, [fn]);\n"
+        +"  if (fn) $log.debug(fn);\n"
+        +"  return fn(); }",
+        "function f($log, fn) {\n"
+        +"  if (fn) {}\n"
+        +"  return fn(); }");
+    assertTrue(reportOutput.toString().startsWith(
+        "calls: removed 3 call sites (assertArgFn: 1, $log.debug: 2), saving about "));
+  }
+
+  public void testCallStrippingPassKeepsCallsWithSideEffects() {
+    testSame("assertArg(next(), 'next');\n"
+        +"$log.debug(count++);\n"
+        +"$log.debug(x = 1);");
+    assertEquals("calls: removed 0 call sites, saving about 0 bytes.\n",
+        reportOutput.toString());
+  }
+
+  public void testCallStrippingPassKeepsCallsWhoseValueIsUsed() {
+    testSame("var fn = assertArg(value, 'value');\n"
+        +"$log.info('kept');\n"
+        +"debug('kept');");
+  }
+}
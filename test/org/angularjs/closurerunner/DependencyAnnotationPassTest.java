@@ -0,0 +1,127 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link DependencyAnnotationPass}.
+ */
+public class DependencyAnnotationPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public DependencyAnnotationPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new DependencyAnnotationPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testDependencyAnnotationPassAnnotatesRegistrations() {
+    test("angular.module('app', [])\n"
+        +"  .controller('Main', function ($scope, users) {})\n"
+        +"  .config(function ($routeProvider) {})\n"
+        +"  .value('format', function (x) {});",
+        "angular.module('app', [])\n"
+        +"  .controller('Main', ['$scope', 'users', function ($scope, users) {}])\n"
+        +"  .config(['$routeProvider', function ($routeProvider) {}])\n"
+        +"  .value('format', function (x) {});");
+    assertEquals("annotations: annotated 2 injectable functions.\n", reportOutput.toString());
+  }
+
+  public void testDependencyAnnotationPassAnnotatesFunctionReferences() {
+    test("function Users($http) {}\n"
+        +"function Api($http) {}\n"
+        +"Api.$inject = ['$http'];\n"
+        +"var app = angular.module('app', []);\n"
+        +"app.service('users', Users).service('api', Api);",
+        "function Users($http) {}\n"
+        +"function Api($http) {}\n"
+        +"Api.$inject = ['$http'];\n"
+        +"var app = angular.module('app', []);\n"
+        +"app.service('users', ['$http', Users]).service('api', Api);");
+  }
+
+  public void testDependencyAnnotationPassResolvesReferencesInTheirScope() {
+    test("(function () {\n"
+        +"  function Ctrl($scope, users) {}\n"
+        +"  angular.module('a', []).controller('A', Ctrl);\n"
+        +"})();\n"
+        +"(function () {\n"
+        +"  function Ctrl(h) {}\n"
+        +"  Ctrl.$inject = ['$http'];\n"
+        +"  angular.module('b', []).controller('B', Ctrl);\n"
+        +"})();",
+        "(function () {\n"
+        +"  function Ctrl($scope, users) {}\n"
+        +"  angular.module('a', []).controller('A', ['$scope', 'users', Ctrl]);\n"
+        +"})();\n"
+        +"(function () {\n"
+        +"  function Ctrl(h) {}\n"
+        +"  Ctrl.$inject = ['$http'];\n"
+        +"  angular.module('b', []).controller('B', Ctrl);\n"
+        +"})();");
+  }
+
+  public void testDependencyAnnotationPassSkipsAmbiguousReferences() {
+    testSame("var Ctrl = function ($scope) {};\n"
+        +"if (debug) { Ctrl = function ($log) {}; }\n"
+        +"angular.module('a', []).controller('A', Ctrl);\n"
+        +"angular.module('b', []).controller('B', Unknown);");
+  }
+
+  public void testDependencyAnnotationPassAnnotatesNestedInjectables() {
+    test("app.directive('foo', function () {\n"
+        +"  return {controller: function ($element) {}}; });\n"
+        +"$routeProvider.when('/', {resolve: {user: function (users) {}}});\n"
+        +"function UsersProvider() { this.$get = function ($http) {}; }\n"
+        +"$injector.invoke(function ($rootScope) {});",
+        "app.directive('foo', function () {\n"
+        +"  return {controller: ['$element', function ($element) {}]}; });\n"
+        +"$routeProvider.when('/', {resolve: {user: ['users', function (users) {}]}});\n"
+        +"function UsersProvider() { this.$get = ['$http', function ($http) {}]; }\n"
+        +"$injector.invoke(['$rootScope', function ($rootScope) {}]);");
+  }
+
+  public void testDependencyAnnotationPassAnnotatesOnlyDefinitionObjects() {
+    test("$provide.provider('users', {$get: function ($http) {}});\n"
+        +"app.directive('foo', ['dep', function (dep) {\n"
+        +"  if (dep) { return {controller: function ($scope) {}}; }\n"
+        +"  return {controller: function ($element) {}}; }]);",
+        "$provide.provider('users', {$get: ['$http', function ($http) {}]});\n"
+        +"app.directive('foo', ['dep', function (dep) {\n"
+        +"  if (dep) { return {controller: ['$scope', function ($scope) {}]}; }\n"
+        +"  return {controller: ['$element', function ($element) {}]}; }]);");
+    // Objects that Angular doesn't read a controller or $get from.
+    testSame("var widget = {controller: function (view) {}};\n"
+        +"x = {$get: function (key) {}};\n"
+        +"app.value('settings', {$get: function (key) {}});\n"
+        +"app.factory('foo', function () {\n"
+        +"  return {controller: function (self) {}}; });");
+  }
+
+  public void testDependencyAnnotationPassKeepsExistingAnnotations() {
+    testSame("angular.module('app', [])\n"
+        +"  .factory('users', ['$http', function (h) {}])\n"
+        +"  .run(function () {});");
+  }
+}
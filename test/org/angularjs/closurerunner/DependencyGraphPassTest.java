@@ -0,0 +1,123 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link DependencyGraphPass}.
+ */
+public class DependencyGraphPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream graphOutput;
+
+  public DependencyGraphPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    graphOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    graphOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new DependencyGraphPass(compiler, new PrintStream(graphOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  private JSONObject getGraph() throws Exception {
+    return new JSONObject(graphOutput.toString());
+  }
+
+  public void testDependencyGraphPassOrdersServicesAfterTheirDependencies() throws Exception {
+    testSame("var app = angular.module('app', ['ngRoute']);\n"
+        +"app.factory('users', ['$http', 'api', function (h, a) {}])\n"
+        +"  .service('api', function (baseUrl) {});\n"
+        +"angular.module('app').constant('baseUrl', '/api');");
+    JSONObject graph = getGraph();
+    assertEquals("[\"ngRoute\"]", graph.getJSONObject("modules").getJSONArray("app").toString());
+    assertEquals("[\"baseUrl\",\"api\",\"users\"]", graph.getJSONArray("order").toString());
+    JSONObject users = graph.getJSONObject("providers").getJSONObject("users");
+    assertEquals("factory", users.getString("type"));
+    assertEquals("app", users.getString("module"));
+    assertEquals("[\"$http\",\"api\"]", users.getJSONArray("dependencies").toString());
+  }
+
+  public void testDependencyGraphPassReadsInjectAnnotations() throws Exception {
+    testSame("function Api(a, b) {}\n"
+        +"Api.$inject = ['$http', 'baseUrl'];\n"
+        +"angular.module('app', []).service('api', Api).value('baseUrl', '/');");
+    assertEquals("[\"$http\",\"baseUrl\"]", getGraph().getJSONObject("providers")
+        .getJSONObject("api").getJSONArray("dependencies").toString());
+  }
+
+  public void testDependencyGraphPassResolvesFunctionsInTheirScope() throws Exception {
+    testSame("(function () {\n"
+        +"  function Api(a) {}\n"
+        +"  Api.$inject = ['$http'];\n"
+        +"  angular.module('a', []).service('api', Api);\n"
+        +"})();\n"
+        +"(function () {\n"
+        +"  function Api($q) {}\n"
+        +"  angular.module('b', []).service('api2', Api);\n"
+        +"})();");
+    JSONObject providers = getGraph().getJSONObject("providers");
+    assertEquals("[\"$http\"]",
+        providers.getJSONObject("api").getJSONArray("dependencies").toString());
+    assertEquals("[\"$q\"]",
+        providers.getJSONObject("api2").getJSONArray("dependencies").toString());
+  }
+
+  public void testDependencyGraphPassReportsMissingProviders() {
+    testSame("angular.module('app', []).controller('Main', function ($scope, users) {});",
+        DependencyGraphPass.MISSING_PROVIDER_WARNING);
+  }
+
+  public void testDependencyGraphPassAcceptsControllerLocals() {
+    testSame("angular.module('app', [])\n"
+        +"  .controller('User', function ($scope, user) {})\n"
+        +"  .controller('Edit', function (item, $modalInstance) {})\n"
+        +"  .controller('Child', function (parent) {})\n"
+        +"  .config(function ($routeProvider) {\n"
+        +"    $routeProvider.when('/user', {controller: 'User as vm',\n"
+        +"        resolve: {user: function () {}}});\n"
+        +"  })\n"
+        +"  .run(function ($modal, $controller) {\n"
+        +"    $modal.open({controller: 'Edit', resolve: {item: function () {}}});\n"
+        +"    $controller('Child', {parent: {}});\n"
+        +"  });");
+    // Locals only count for the controller that gets them.
+    testSame("angular.module('app', [])\n"
+        +"  .controller('Other', function (user) {})\n"
+        +"  .config(function ($routeProvider) {\n"
+        +"    $routeProvider.when('/user', {controller: 'User', resolve: {user: getUser}});\n"
+        +"  });",
+        DependencyGraphPass.MISSING_PROVIDER_WARNING);
+  }
+
+  public void testDependencyGraphPassAcceptsProvidersInConfigBlocks() {
+    testSame("angular.module('app', [])\n"
+        +"  .factory('users', function () {})\n"
+        +"  .config(function (usersProvider, $routeProvider) {});");
+  }
+
+  public void testDependencyGraphPassReportsCircularDependencies() {
+    test("angular.module('app', [])\n"
+        +"  .factory('a', function (b) {})\n"
+        +"  .factory('b', function (a) {});",
+        null, DependencyGraphPass.CIRCULAR_DEPENDENCY_ERROR);
+  }
+}
@@ -0,0 +1,63 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.util.Arrays;
+
+/**
+ * Tests {@link DirectiveNameTablePass}.
+ */
+public class DirectiveNameTablePassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public DirectiveNameTablePassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new DirectiveNameTablePass(compiler, "names", new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testDirectiveNameTablePassDenormalizesNames() {
+    assertEquals(Arrays.asList("ng-click", "data-ng-click", "x-ng-click", "ng:click", "ng_click"),
+        DirectiveNameTablePass.getDenormalizedNames("ngClick"));
+    assertEquals(Arrays.asList("form", "data-form", "x-form"),
+        DirectiveNameTablePass.getDenormalizedNames("form"));
+  }
+
+  public void testDirectiveNameTablePassListsRegisteredDirectives() {
+    test("angular.module('app', []).directive('myTab', function () {});\n"
+        +"$compileProvider.directive({form: formDirective});",
+        "angular.module('app', []).directive('myTab', function () {});\n"
+        +"$compileProvider.directive({form: formDirective});\n"
+        +"window['names'] = {'my-tab': 'myTab', 'data-my-tab': 'myTab',\n"
+        +"  'x-my-tab': 'myTab', 'my:tab': 'myTab', 'my_tab': 'myTab', 'form': 'form',\n"
+        +"  'data-form': 'form', 'x-form': 'form'};");
+    assertEquals("directives: listed 8 names for 2 directives.\n", reportOutput.toString());
+  }
+
+  public void testDirectiveNameTablePassSkipsEmptyTables() {
+    testSame("angular.module('app', []).factory('myTab', function () {});");
+    assertEquals("directives: listed 0 names for 0 directives.\n", reportOutput.toString());
+  }
+}
@@ -0,0 +1,100 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link ExpressionPrecompilationPass}.
+ */
+public class ExpressionPrecompilationPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public ExpressionPrecompilationPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new ExpressionPrecompilationPass(compiler, "exprs", new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  private String compileEntry(String expression) {
+    return new ExpressionPrecompilationPass(null, "exprs", null).compileEntry(expression);
+  }
+
+  private String table(String entries) {
+    return "(function () {\n" + ExpressionPrecompilationPass.HELPERS
+        + "window['exprs'] = {" + entries + "};\n"
+        + "})();";
+  }
+
+  public void testPrecompilesParseAndWatchExpressions() {
+    test("var getter = $parse('user.name');\n"
+        +"scope.$watch('count', listener);",
+        "var getter = $parse('user.name');\n"
+        +"scope.$watch('count', listener);\n"
+        + table("'user.name': {'get': function (s, l) {\n"
+        +"    return get(lookup(s, l, 'user'), 'name'); },\n"
+        +"  'set': function (s, v) { return assign(s, ['user', 'name'], v); }},\n"
+        +"'count': {'get': function (s, l) { return lookup(s, l, 'count'); },\n"
+        +"  'set': function (s, v) { return assign(s, ['count'], v); }}"));
+    assertEquals("expressions: precompiled 2 of 2 expressions.\n", reportOutput.toString());
+  }
+
+  public void testPrecompilesTemplateExpressions() {
+    test("$templateCache.put('a.html', '<a ng-click=\"go(1)\">{{ title }}</a>');",
+        "$templateCache.put('a.html', '<a ng-click=\"go(1)\">{{ title }}</a>');\n"
+        + table("' title ': {'get': function (s, l) { return lookup(s, l, 'title'); },\n"
+        +"  'set': function (s, v) { return assign(s, ['title'], v); }},\n"
+        +"'go(1)': {'get': function (s, l) {\n"
+        +"    return call(s, lookup(s, l, 'go'), [1]); }}"));
+  }
+
+  public void testLeavesFilteredExpressionsToTheRuntime() {
+    testSame("$parse('items | orderBy:predicate');");
+    assertEquals("expressions: precompiled 0 of 1 expressions.\n", reportOutput.toString());
+  }
+
+  public void testCompilesOperatorsWithParseSemantics() {
+    assertEquals("{'get': function (s, l) { return "
+        + "(plus(lookup(s, l, 'a'), 1) > minus(0, lookup(s, l, 'b'))); }}",
+        compileEntry("a + 1 > -b"));
+    assertEquals("{'get': function (s, l) { return "
+        + "(!lookup(s, l, 'ok') ? 'no' : {'x': [null, undefined, 1.5]}); }}",
+        compileEntry("!ok ? 'no' : {x: [null, undefined, 1.5]}"));
+    assertEquals("{'get': function (s, l) { return "
+        + "plus(0, lookup(s, l, 'a')); }}",
+        compileEntry("+a"));
+  }
+
+  public void testCompilesMethodCallsAndAssignments() {
+    assertEquals("{'get': function (s, l) { return "
+        + "(invoke(lookup(s, l, 'list'), 'push', [lookup(s, l, 'item')]), "
+        + "assign(s, ['form', 'items', '0'], lookup(s, l, 'item'))); }}",
+        compileEntry("list.push(item); form.items[0] = item"));
+  }
+
+  public void testRefusesUnsafeAndComputedMembers() {
+    assertNull(compileEntry("a.constructor('alert(1)')()"));
+    assertNull(compileEntry("a[key]"));
+    assertNull(compileEntry("a +"));
+  }
+}
@@ -0,0 +1,79 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link ExternsGenerationPass}.
+ */
+public class ExternsGenerationPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream externsOutput;
+  private ByteArrayOutputStream reportOutput;
+
+  public ExternsGenerationPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    allowExternsChanges(true);
+    externsOutput = new ByteArrayOutputStream();
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    externsOutput.reset();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new ExternsGenerationPass(compiler, new PrintStream(externsOutput),
+        new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testExternsGenerationPassDeclaresTemplateProperties() {
+    testSame("$templateCache.put('a.html',\n"
+        +"  '<p ng-class=\"{active: user.isAdmin}\">{{user.fullName | limitTo:max}}</p>');");
+    assertEquals("/** @type {?} */\n"
+        +"var angularExpressionProperties;\n"
+        +"angularExpressionProperties.active;\n"
+        +"angularExpressionProperties.fullName;\n"
+        +"angularExpressionProperties.isAdmin;\n"
+        +"angularExpressionProperties.max;\n"
+        +"angularExpressionProperties.user;\n", externsOutput.toString());
+  }
+
+  public void testExternsGenerationPassReadsMicrosyntaxAndExpressionStrings() {
+    testSame("x = {template: '<li ng-repeat=\"(id, item) in list.items track by item.key\">"
+        +"<div ng-controller=\"Main as main\"></div></li>'};\n"
+        +"$scope.$watch('config[\"mode\"]', update);\n"
+        +"$scope.$watchGroup(['a.b', 'c'], update);\n"
+        +"$parse('total +')");
+    assertEquals("/** @type {?} */\n"
+        +"var angularExpressionProperties;\n"
+        +"angularExpressionProperties.a;\n"
+        +"angularExpressionProperties.b;\n"
+        +"angularExpressionProperties.c;\n"
+        +"angularExpressionProperties.config;\n"
+        +"angularExpressionProperties.id;\n"
+        +"angularExpressionProperties.item;\n"
+        +"angularExpressionProperties.items;\n"
+        +"angularExpressionProperties.key;\n"
+        +"angularExpressionProperties.list;\n"
+        +"angularExpressionProperties.main;\n"
+        +"angularExpressionProperties.mode;\n"
+        +"angularExpressionProperties.total;\n", externsOutput.toString());
+    assertEquals("externs: declared 12 properties from 8 expressions.\n",
+        reportOutput.toString());
+  }
+}
@@ -0,0 +1,77 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests {@link FeatureFlagPass}.
+ */
+public class FeatureFlagPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+  private Map<String, String> flags;
+
+  public FeatureFlagPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+    flags = new LinkedHashMap<String, String>();
+    flags.put("debugInfoEnabled", "false");
+    flags.put("angular.mock", "undefined");
+    flags.put("APP_VERSION", "'1.2'");
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new FeatureFlagPass(compiler, flags, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testFeatureFlagPassReplacesFlagReads() {
+    test("function $CompileProvider() {\n"
+        +"  var debugInfoEnabled = true;\n"
+        +"  if (debugInfoEnabled) { addClass(); }\n"
+        +"  if (angular.mock && angular.mock.inject) { hook(); }\n"
+        +"  log(APP_VERSION); }",
+        "function $CompileProvider() {\n"
+        +"  var debugInfoEnabled = false;\n"
+        +"  if (false) { addClass(); }\n"
+        +"  if (void 0 && angular.mock.inject) { hook(); }\n"
+        +"  log('1.2'); }");
+    assertEquals("defines: replaced 4 references to 3 flags.\n", reportOutput.toString());
+  }
+
+  public void testFeatureFlagPassSkipsShadowingParameters() {
+    testSame("function f(debugInfoEnabled) { return debugInfoEnabled; }");
+  }
+
+  public void testFeatureFlagPassWarnsAboutAssignments() {
+    testSame("var debugInfoEnabled;\n"
+        +"function set(enabled) { debugInfoEnabled = enabled; }",
+        FeatureFlagPass.FLAG_ASSIGNMENT_WARNING);
+  }
+
+  public void testCreateValueParsesLiterals() {
+    assertTrue(FeatureFlagPass.createValue("true").isTrue());
+    assertEquals(2.5, FeatureFlagPass.createValue("2.5").getDouble());
+    assertEquals("x", FeatureFlagPass.createValue("\"x\"").getString());
+    assertEquals("prod", FeatureFlagPass.createValue("prod").getString());
+  }
+}
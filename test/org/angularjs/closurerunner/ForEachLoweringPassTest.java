@@ -0,0 +1,117 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link ForEachLoweringPass}.
+ */
+public class ForEachLoweringPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public ForEachLoweringPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new ForEachLoweringPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testForEachLoweringPassLowersAnnotatedArrays() {
+    test("/** @param {!Array.<number>} list */\n"
+        +"function sum(list) {\n"
+        +"  var total = 0;\n"
+        +"  forEach(list, function (item, i) { var x; if (!item) return; total += item * i; });\n"
+        +"  return total; }",
+        "function sum(list) {\n"
+        +"  var total = 0;\n"
+        +"  var list$0 = list, length = list$0.length;\n"
+        +"  each: for (var index = 0; index < length; index++) {\n"
+        +"    if (index in list$0) {\n"
+        +"      var item = list$0[index], i = index, x = void 0;\n"
+        +"      var x;\n"
+        +"      if (!item) continue each;\n"
+        +"      total += item * i; } }\n"
+        +"  return total; }");
+    assertEquals("forEach: lowered 1 of 1 calls to loops.\n", reportOutput.toString());
+  }
+
+  public void testForEachLoweringPassLowersObjectLiterals() {
+    test("angular.forEach({a: 1, b: 2}, function (value, key) { set(key, value); });",
+        "var collection = {a: 1, b: 2};\n"
+        +"for (var key in collection) {\n"
+        +"  if (collection.hasOwnProperty(key)) {\n"
+        +"    var value = collection[key];\n"
+        +"    set(key, value); } }");
+  }
+
+  public void testForEachLoweringPassRenamesCallbackVariables() {
+    test("var item = 1;\n"
+        +"forEach([1, 2], function (item) { log(item); });",
+        "var item = 1;\n"
+        +"var collection = [1, 2], length = collection.length;\n"
+        +"for (var index = 0; index < length; index++) {\n"
+        +"  if (index in collection) { var item$0 = collection[index]; log(item$0); } }");
+  }
+
+  public void testForEachLoweringPassSkipsUnsafeCallbacks() {
+    testSame("forEach([1], function (x) { this.push(x); });\n"
+        +"forEach([1], function (x) { return x; });\n"
+        +"forEach([1], function (x) { setTimeout(function () { use(x); }); });\n"
+        +"forEach(list, function (x) { use(x); });");
+    assertEquals("forEach: lowered 0 of 3 calls to loops.\n", reportOutput.toString());
+  }
+
+  public void testForEachLoweringPassSkipsNullableArrays() {
+    testSame("/** @param {Array} list */\n"
+        +"function f(list) { forEach(list, function (x) { use(x); }); }\n"
+        +"/** @type {Array.<number>} */\n"
+        +"var items = null;\n"
+        +"angular.forEach(items, function (x) { use(x); });");
+  }
+
+  public void testForEachLoweringPassSkipsLocalForEachDefinitions() {
+    testSame("function f(forEach) { forEach([1], function (x) { use(x); }); }\n"
+        +"function g() {\n"
+        +"  var forEach = _.each;\n"
+        +"  forEach([1], function (x) { use(x); });\n"
+        +"}\n"
+        +"function h() {\n"
+        +"  function forEach(list, fn) { fn(list); }\n"
+        +"  forEach([1], function (x) { use(x); });\n"
+        +"}");
+    assertEquals("forEach: lowered 0 of 0 calls to loops.\n", reportOutput.toString());
+  }
+
+  public void testForEachLoweringPassLowersAngularsOwnForEach() {
+    test("(function (window) {\n"
+        +"  function forEach(obj, iterator, context) {}\n"
+        +"  forEach([1], function (x) { use(x); });\n"
+        +"})(window);",
+        "(function (window) {\n"
+        +"  function forEach(obj, iterator, context) {}\n"
+        +"  var collection = [1], length = collection.length;\n"
+        +"  for (var index = 0; index < length; index++) {\n"
+        +"    if (index in collection) { var x = collection[index]; use(x); } }\n"
+        +"})(window);");
+  }
+}
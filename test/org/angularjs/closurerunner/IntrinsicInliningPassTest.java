@@ -0,0 +1,74 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link IntrinsicInliningPass}.
+ */
+public class IntrinsicInliningPassTest extends CompilerTestCase {
+
+  private static final String HELPERS =
+      "function isString(value) { return typeof value === 'string'; }\n"
+      +"function isDefined(value) { return typeof value !== 'undefined'; }\n"
+      +"function isObject(value) { return value !== null && typeof value === 'object'; }\n"
+      +"function noop() {}\n"
+      +"function identity($) { return $; }\n";
+
+  private ByteArrayOutputStream reportOutput;
+
+  public IntrinsicInliningPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new IntrinsicInliningPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testIntrinsicInliningPassReplacesVerifiedHelpers() {
+    test(HELPERS
+        +"if (isString(a) && isDefined(b.c)) { noop(a); }\n"
+        +"x = isObject(a) ? identity(a) : noop();",
+        HELPERS
+        +"if (typeof a === 'string' && typeof b.c !== 'undefined') { void 0; }\n"
+        +"x = a !== null && typeof a === 'object' ? a : void 0;");
+    assertTrue(reportOutput.toString().startsWith("intrinsics: inlined 6 calls "
+        +"(isString: 1, isDefined: 1, noop: 2, isObject: 1, identity: 1), changing the size by about "));
+  }
+
+  public void testIntrinsicInliningPassSkipsUnknownImplementations() {
+    testSame("function isString(value) { return value instanceof String; }\n"
+        +"isString(a);\n"
+        +"isDefined(a);");
+  }
+
+  public void testIntrinsicInliningPassReplacesAngularApiCalls() {
+    test("angular.isFunction(fn) && angular.isUndefined(x);",
+        "typeof fn === 'function' && typeof x === 'undefined';");
+  }
+
+  public void testIntrinsicInliningPassKeepsArgumentsWithSideEffects() {
+    testSame(HELPERS
+        +"isObject(next());\n"
+        +"noop(next());\n"
+        +"identity(obj.method)();");
+  }
+}
@@ -0,0 +1,137 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link LocalePruningPass}.
+ */
+public class LocalePruningPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+  private List<String> locales;
+  private List<String> keptConsumers;
+
+  static final String LOCALE_EN =
+      "$provide.value('$locale', {\n"
+      +"  'DATETIME_FORMATS': {'DAY': ['Sunday'], 'mediumDate': 'MMM d, y',\n"
+      +"    'shortDate': 'M/d/yy', 'shortTime': 'h:mm a'},\n"
+      +"  'NUMBER_FORMATS': {'CURRENCY_SYM': '$', 'DECIMAL_SEP': '.', 'PATTERNS': []},\n"
+      +"  'id': 'en-us',\n"
+      +"  'pluralCat': function (n) { return n == 1 ? 'one' : 'other'; }\n"
+      +"});\n";
+
+  public LocalePruningPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+    locales = new ArrayList<String>();
+    keptConsumers = new ArrayList<String>();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new LocalePruningPass(compiler, locales, keptConsumers,
+        new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testLocalePruningPassRemovesUnusedFields() {
+    test(LOCALE_EN,
+        "$provide.value('$locale', {\n"
+        +"  'DATETIME_FORMATS': {},\n"
+        +"  'NUMBER_FORMATS': {},\n"
+        +"  'id': 'en-us'\n"
+        +"});\n");
+    assertTrue(reportOutput.toString().startsWith(
+        "locale: removed 0 locales and 8 unused fields, saving about "));
+  }
+
+  public void testLocalePruningPassKeepsFieldsOfUsedFilters() {
+    test(LOCALE_EN
+        +"$templateCache.put('a.html', '<p>{{d | date:\\'shortDate\\'}} {{n | number}}</p>');",
+        "$provide.value('$locale', {\n"
+        +"  'DATETIME_FORMATS': {'DAY': ['Sunday'], 'mediumDate': 'MMM d, y',\n"
+        +"    'shortDate': 'M/d/yy'},\n"
+        +"  'NUMBER_FORMATS': {'DECIMAL_SEP': '.', 'PATTERNS': []},\n"
+        +"  'id': 'en-us'\n"
+        +"});\n"
+        +"$templateCache.put('a.html', '<p>{{d | date:\\'shortDate\\'}} {{n | number}}</p>');");
+  }
+
+  public void testLocalePruningPassKeepsFieldsReadDirectly() {
+    test(LOCALE_EN
+        +"function currencyFilter($locale) { return $locale.NUMBER_FORMATS; }\n"
+        +"x = $locale.NUMBER_FORMATS.CURRENCY_SYM;\n"
+        +"$templateCache.put('a.html', '<ng-pluralize count=\"n\"></ng-pluralize>');",
+        "$provide.value('$locale', {\n"
+        +"  'DATETIME_FORMATS': {},\n"
+        +"  'NUMBER_FORMATS': {'CURRENCY_SYM': '$'},\n"
+        +"  'id': 'en-us',\n"
+        +"  'pluralCat': function (n) { return n == 1 ? 'one' : 'other'; }\n"
+        +"});\n"
+        +"function currencyFilter($locale) { return $locale.NUMBER_FORMATS; }\n"
+        +"x = $locale.NUMBER_FORMATS.CURRENCY_SYM;\n"
+        +"$templateCache.put('a.html', '<ng-pluralize count=\"n\"></ng-pluralize>');");
+  }
+
+  public void testLocalePruningPassKeepsFieldsIfTemplatesAreNotInlined() {
+    String js = LOCALE_EN
+        +"app.directive('foo', function () { return {templateUrl: 'foo.html'}; });\n"
+        +"$templateCache.put('a.html', '<p>{{n | number}}</p>');";
+    testSame(js);
+    assertTrue(reportOutput.toString().startsWith(
+        "locale: not all templates are inlined, no fields removed.\n"
+        +"locale: removed 0 locales and 0 unused fields, saving about "));
+
+    test(js.replace("'a.html'", "'foo.html'"),
+        "$provide.value('$locale', {\n"
+        +"  'DATETIME_FORMATS': {},\n"
+        +"  'NUMBER_FORMATS': {'DECIMAL_SEP': '.', 'PATTERNS': []},\n"
+        +"  'id': 'en-us'\n"
+        +"});\n"
+        +"app.directive('foo', function () { return {templateUrl: 'foo.html'}; });\n"
+        +"$templateCache.put('foo.html', '<p>{{n | number}}</p>');");
+  }
+
+  public void testLocalePruningPassKeepsFieldsOfConsumersGivenByName() {
+    // The host page uses {{today | date}} and <ng-pluralize>.
+    keptConsumers.addAll(Arrays.asList("date", "ng-pluralize"));
+    test(LOCALE_EN,
+        "$provide.value('$locale', {\n"
+        +"  'DATETIME_FORMATS': {'DAY': ['Sunday'], 'mediumDate': 'MMM d, y'},\n"
+        +"  'NUMBER_FORMATS': {},\n"
+        +"  'id': 'en-us',\n"
+        +"  'pluralCat': function (n) { return n == 1 ? 'one' : 'other'; }\n"
+        +"});\n");
+  }
+
+  public void testLocalePruningPassRemovesLocalesNotRequired() {
+    locales.add("de_DE");
+    test("$provide.value('$locale', {'DATETIME_FORMATS': {}, 'id': 'en-us'});\n"
+        +"$provide.value('$locale', {'DATETIME_FORMATS': {}, 'id': 'de-de'});\n"
+        +"angular.copy($locale);",
+        "$provide.value('$locale', {'DATETIME_FORMATS': {}, 'id': 'de-de'});\n"
+        +"angular.copy($locale);");
+    assertTrue(reportOutput.toString().startsWith("locale: removed locale 'en-us'.\n"
+        +"locale: removed 1 locales and 0 unused fields, saving about "));
+  }
+}
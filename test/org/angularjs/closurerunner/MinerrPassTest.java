@@ -15,7 +15,11 @@ import org.json.JSONObject;
 import junit.framework.TestCase;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
 
 /**
  * Tests {@link MinerrPass}.
@@ -24,11 +28,16 @@ public class MinerrPassTest extends CompilerTestCase {
 
   private ByteArrayOutputStream dummyOutput;
   private String subCode;
+  private boolean hoistInstances;
+  private boolean deduplicateThrows;
+  private ByteArrayOutputStream reportOutput;
+  private List<String> conversionFiles;
 
   public MinerrPassTest() {
     super();
     enableLineNumberCheck(false);
     dummyOutput = new ByteArrayOutputStream();
+    reportOutput = new ByteArrayOutputStream();
     subCode = null;
   }
 
@@ -36,11 +45,20 @@ public class MinerrPassTest extends CompilerTestCase {
     super.setUp();
     dummyOutput.reset();
     subCode = null;
+    hoistInstances = false;
+    deduplicateThrows = false;
+    reportOutput.reset();
+    conversionFiles = null;
   }
 
   @Override
   public CompilerPass getProcessor(Compiler compiler) {
-    return new MinerrPass(compiler, new PrintStream(dummyOutput), subCode);
+    MinerrPass pass = new MinerrPass(compiler, new PrintStream(dummyOutput), subCode);
+    pass.setHoistInstances(hoistInstances);
+    pass.setDeduplicateThrows(deduplicateThrows);
+    pass.setReportOutput(new PrintStream(reportOutput));
+    pass.setErrorConversion("ng", conversionFiles);
+    return pass;
   }
 
   @Override
@@ -162,4 +180,188 @@ public class MinerrPassTest extends CompilerTestCase {
         +"})();", MinerrPass.MULTIPLE_MINERR_DEFINITION_WARNING);
   }
 
-}
\ No newline at end of file
+  public void testMinerrPassHoistsRepeatedFactoryCalls() throws Exception {
+    hoistInstances = true;
+    test("function minErr(module) {}\n"
+        +"function f(a) { throw minErr('ng')('areq', 'Bad {0}', a); }\n"
+        +"function g(b) { throw minErr('ng')('badname', 'Bad name {0}', b); }",
+        "var ngMinErr = minErr('ng');\n"
+        +"function minErr(module) {}\n"
+        +"function f(a) { throw ngMinErr('areq', a); }\n"
+        +"function g(b) { throw ngMinErr('badname', b); }");
+    assertExtracted("{'ng':{'areq':'Bad {0}','badname':'Bad name {0}'}}");
+  }
+
+  public void testMinerrPassHoistsIntoTheScopeOfTheDefinition() {
+    hoistInstances = true;
+    test("(function () {\n"
+        +"  var ngMinErr;\n"
+        +"  function minErr(module) {}\n"
+        +"  function f() { return [minErr('$compile'), minErr('$compile')]; }\n"
+        +"})();",
+        "(function () {\n"
+        +"  var $compileMinErr = minErr('$compile');\n"
+        +"  var ngMinErr;\n"
+        +"  function minErr(module) {}\n"
+        +"  function f() { return [$compileMinErr, $compileMinErr]; }\n"
+        +"})();");
+  }
+
+  public void testMinerrPassAvoidsNameCollisionsWhenHoisting() {
+    hoistInstances = true;
+    test("function minErr(module) {}\n"
+        +"function f(ngMinErr) { return [minErr('ng'), minErr('ng')]; }",
+        "var ngMinErr$0 = minErr('ng');\n"
+        +"function minErr(module) {}\n"
+        +"function f(ngMinErr) { return [ngMinErr$0, ngMinErr$0]; }");
+  }
+
+  public void testMinerrPassDoesNotHoistSingleOrShadowedFactoryCalls() {
+    hoistInstances = true;
+    testSame("function minErr(module) {}\n"
+        +"function f() { return minErr('foo'); }\n"
+        +"function g(minErr) { return [minErr('bar'), minErr('bar')]; }");
+  }
+
+  public void testMinerrPassReusesExistingInstanceDeclarations() {
+    hoistInstances = true;
+    test("function minErr(module) {}\n"
+        +"var fooMinErr = minErr('foo');\n"
+        +"function f() { return minErr('foo'); }\n"
+        +"function g() { return [minErr('foo'), minErr('bar')]; }",
+        "function minErr(module) {}\n"
+        +"var fooMinErr = minErr('foo');\n"
+        +"function f() { return fooMinErr; }\n"
+        +"function g() { return [fooMinErr, minErr('bar')]; }");
+  }
+
+  public void testMinerrPassDoesNotReuseShadowedOrLaterDeclarations() {
+    hoistInstances = true;
+    testSame("function minErr(module) {}\n"
+        +"var early = [minErr('foo')];\n"
+        +"var fooMinErr = minErr('foo');\n"
+        +"function f(fooMinErr) { return minErr('foo'); }");
+  }
+
+  public void testMinerrPassDoesNotHoistWithoutTheOption() {
+    testSame("function minErr(module) {}\n"
+        +"function f() { return [minErr('ng'), minErr('ng')]; }");
+  }
+
+  public void testMinerrPassDeduplicatesIdenticalThrowSites() throws Exception {
+    deduplicateThrows = true;
+    String site = "throw ngMinErr('areq', 'Argument {0} is {1}', %s, 'required by this directive');";
+    test("var ngMinErr = minErr('ng');\n"
+        +"function f(a) { " + String.format(site, "a") + " }\n"
+        +"function g(b) { " + String.format(site, "b") + " }\n"
+        +"function h(c) { " + String.format(site, "c") + " }",
+        "function ngMinErr$areq(p0) { return ngMinErr('areq', p0, 'required by this directive'); }\n"
+        +"var ngMinErr = minErr('ng');\n"
+        +"function f(a) { throw ngMinErr$areq(a); }\n"
+        +"function g(b) { throw ngMinErr$areq(b); }\n"
+        +"function h(c) { throw ngMinErr$areq(c); }");
+    assertExtracted("{'ng':{'areq':'Argument {0} is {1}'}}");
+    assertTrue(reportOutput.toString().startsWith(
+        "minErr: deduplicated 3 throw sites into 1 helpers"));
+  }
+
+  public void testMinerrPassDeduplicatesHoistedInstancesInTheirScope() {
+    deduplicateThrows = true;
+    hoistInstances = true;
+    StringBuilder input = new StringBuilder("(function () { function minErr(module) {}\n");
+    StringBuilder expected = new StringBuilder("(function () {\n"
+        +"  function $compileMinErr$nonassign(p0) {\n"
+        +"    return $compileMinErr('nonassign', p0, 'some directive name'); }\n"
+        +"  var $compileMinErr = minErr('$compile');\n"
+        +"  function minErr(module) {}\n");
+    for (int i = 0; i < 5; i++) {
+      input.append("function f" + i + "(a) { throw minErr('$compile')('nonassign', "
+          + "'Non-assignable model expression: {0}', a, 'some directive name'); }\n");
+      expected.append("function f" + i + "(a) { throw $compileMinErr$nonassign(a); }\n");
+    }
+    test(input + "})();", expected + "})();");
+  }
+
+  public void testMinerrPassDoesNotDeduplicateWhenNothingIsSaved() {
+    deduplicateThrows = true;
+    test("var fooMinErr = minErr('foo');\n"
+        +"function f(a) { throw fooMinErr('a', 'A {0}', a); }\n"
+        +"function g(b) { throw fooMinErr('a', 'A {0}', b); }\n"
+        +"function h(c) { throw fooMinErr('b', 'B {0}', c); }",
+        "var fooMinErr = minErr('foo');\n"
+        +"function f(a) { throw fooMinErr('a', a); }\n"
+        +"function g(b) { throw fooMinErr('a', b); }\n"
+        +"function h(c) { throw fooMinErr('b', c); }");
+  }
+
+  public void testMinerrPassConvertsPlainErrorsInWhitelistedFiles() throws Exception {
+    conversionFiles = Arrays.asList("input0");
+    test(new String[] {
+          "function minErr(module) {}\n"
+          +"function f() { throw new Error('Something ' + 'went wrong'); }\n"
+          +"function g() { throw new TypeError('Not a function'); }",
+          "function h() { throw new Error('Elsewhere'); }"
+        },
+        new String[] {
+          "function minErr(module) {}\n"
+          +"function f() { throw minErr('ng')('yr1es8'); }\n"
+          +"function g() { throw minErr('ng', TypeError)('1hfk7co'); }",
+          "function h() { throw new Error('Elsewhere'); }"
+        }, null, MinerrPass.THROW_IS_NOT_MINERR_ERROR_WARNING);
+    assertExtracted("{'ng':{'yr1es8':'Something went wrong','1hfk7co':'Not a function'}}");
+  }
+
+  public void testMinerrPassDoesNotConvertErrorsWithDynamicMessages() {
+    conversionFiles = Arrays.asList("testcode");
+    testSame("function minErr(module) {}\n"
+        +"function f(x) { throw new Error('Bad ' + x); }",
+        MinerrPass.THROW_IS_NOT_MINERR_ERROR_WARNING);
+  }
+
+  public void testMinerrPassHoistsConvertedErrors() {
+    conversionFiles = Arrays.asList("testcode");
+    hoistInstances = true;
+    test("function minErr(module) {}\n"
+        +"function f() { throw new Error('Something went wrong'); }\n"
+        +"function g() { throw new Error('Something went wrong'); }",
+        "var ngMinErr = minErr('ng');\n"
+        +"function minErr(module) {}\n"
+        +"function f() { throw ngMinErr('yr1es8'); }\n"
+        +"function g() { throw ngMinErr('yr1es8'); }");
+  }
+
+  public void testMinerrPassSubstitutesReferenceToSharedRuntime() {
+    subCode = MinerrPass.createSharedRuntimeReference("angularMinErr");
+    test("function minErr(module) {\n"
+        +"  console.log('This should be ripped out.'); }",
+        "function minErr(module, ErrorConstructor) {\n"
+        +"  return window['angularMinErr'](module, ErrorConstructor); }");
+  }
+
+  public void testSharedRuntimeExportsTheMinerrDefinition() {
+    String runtime = MinerrPass.createSharedRuntime(
+        "function minErr(module) {}\n", "angularMinErr");
+    assertEquals("(function (window) {\n"
+        +"function minErr(module) {}\n"
+        +"window['angularMinErr'] = minErr;\n"
+        +"})(window);\n", runtime);
+  }
+
+  public void testMinerrPassSubstitutesTheLazyStub() throws Exception {
+    InputStream stream = getClass().getClassLoader().getResourceAsStream("minErrStub.js");
+    String stub = new Scanner(stream).useDelimiter("\\A").next();
+    subCode = MinerrPass.substituteInStub(stub, "http://errors.angularjs.org/", "/",
+        "minErrFormatter.js", "angularMinErrFormat");
+    assertFalse(subCode.contains("MINERR_"));
+    test("function minErr(module) {\n"
+        +"  console.log('This should be ripped out.'); }", subCode);
+  }
+
+  public void testLazyFormatterFormatsQueuedErrors() {
+    String formatter = MinerrPass.createLazyFormatter(
+        "function minErr(module) {}\n", "angularMinErrFormat");
+    assertTrue(formatter.startsWith("(function (window) {\nfunction minErr(module) {}\n"));
+    assertTrue(formatter.contains("var queue = window['angularMinErrFormatQueue'] || [];"));
+    assertTrue(formatter.contains("window['angularMinErrFormat'] = format;"));
+  }
+}
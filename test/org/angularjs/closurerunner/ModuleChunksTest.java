@@ -0,0 +1,104 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.SourceFile;
+
+import com.google.javascript.rhino.Node;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link ModuleChunks}.
+ */
+public class ModuleChunksTest extends TestCase {
+
+  /**
+   * Computes the chunks of files given as pairs of names and code.
+   */
+  private ModuleChunks computeChunks(List<String> bootstrapModules, String... files) {
+    List<SourceFile> inputs = new ArrayList<SourceFile>();
+    for (int i = 0; i < files.length; i += 2) {
+      inputs.add(SourceFile.fromCode(files[i], files[i + 1]));
+    }
+    Compiler compiler = new Compiler();
+    compiler.init(new ArrayList<SourceFile>(), inputs, new CompilerOptions());
+    compiler.parse();
+    ModuleChunks chunks = new ModuleChunks();
+    for (Node script : compiler.getRoot().getLastChild().children()) {
+      chunks.addFile(compiler, script);
+    }
+    chunks.compute(bootstrapModules);
+    return chunks;
+  }
+
+  private static Map<String, List<String>> chunkFiles(String... chunks) {
+    Map<String, List<String>> chunkFiles = new LinkedHashMap<String, List<String>>();
+    for (String chunk : chunks) {
+      String[] parts = chunk.split(":");
+      chunkFiles.put(parts[0], Arrays.asList(parts[1].split(",")));
+    }
+    return chunkFiles;
+  }
+
+  public void testModuleChunksSplitsRootModules() {
+    ModuleChunks chunks = computeChunks(Arrays.asList("app"),
+        "common.js", "angular.module('common', []);",
+        "app.js", "angular.module('app', ['common']);",
+        "admin.js", "angular.module('admin', ['common', 'adminGrid']);\n"
+            +"angular.module('admin').controller('AdminCtrl', function () {});",
+        "grid.js", "angular.module('adminGrid', []).directive('grid', function () {});",
+        "reports.js", "angular.module('reports', ['common']);",
+        "lib.js", "function helper() {}");
+    assertEquals(chunkFiles("base:common.js,app.js,lib.js", "admin:admin.js,grid.js",
+        "reports:reports.js"), chunks.chunkFiles);
+    assertEquals("base", chunks.moduleChunks.get("common"));
+    assertEquals("base", chunks.moduleChunks.get("app"));
+    assertEquals("admin", chunks.moduleChunks.get("adminGrid"));
+    assertEquals("reports", chunks.moduleChunks.get("reports"));
+  }
+
+  public void testModuleChunksPutsSharedModulesIntoTheBaseChunk() {
+    ModuleChunks chunks = computeChunks(Collections.<String>emptyList(),
+        "widgets.js", "angular.module('widgets', []);",
+        "admin.js", "angular.module('admin', ['widgets']);",
+        "reports.js", "angular.module('reports', ['widgets']);",
+        "both.js", "angular.module('admin').value('a', 1);\n"
+            +"angular.module('reports').value('b', 2);");
+    assertEquals(chunkFiles("base:widgets.js,both.js", "admin:admin.js",
+        "reports:reports.js"), chunks.chunkFiles);
+    assertEquals("base", chunks.moduleChunks.get("widgets"));
+  }
+
+  public void testModuleChunksMovesModulesOfEmptyChunksIntoTheBaseChunk() {
+    ModuleChunks chunks = computeChunks(Arrays.asList("app"),
+        "app.js", "angular.module('app', []);",
+        "features.js", "angular.module('admin', []);\n"
+            +"angular.module('reports', []);",
+        "reports.js", "angular.module('reports').value('b', 2);");
+    assertEquals(chunkFiles("base:app.js,features.js", "reports:reports.js"),
+        chunks.chunkFiles);
+    assertEquals("base", chunks.moduleChunks.get("admin"));
+    assertEquals("reports", chunks.moduleChunks.get("reports"));
+  }
+
+  public void testModuleChunksGivesChunksUniqueNames() {
+    ModuleChunks chunks = computeChunks(Arrays.asList("app"),
+        "app.js", "angular.module('app', []);",
+        "a.js", "angular.module('a/b', []);",
+        "b.js", "angular.module('a_b', []);",
+        "c.js", "angular.module('base', []);");
+    assertEquals(chunkFiles("base:app.js", "a_b:a.js", "a_b_1:b.js", "base_1:c.js"),
+        chunks.chunkFiles);
+    assertEquals("a_b", chunks.moduleChunks.get("a/b"));
+    assertEquals("a_b_1", chunks.moduleChunks.get("a_b"));
+    assertEquals("base_1", chunks.moduleChunks.get("base"));
+  }
+}
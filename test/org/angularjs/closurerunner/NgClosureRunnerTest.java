@@ -0,0 +1,190 @@
+package org.angularjs.closurerunner;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the argument handling of {@link NgClosureRunner}.
+ */
+public class NgClosureRunnerTest extends TestCase {
+
+  private File directory;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+  }
+
+  public void tearDown() throws Exception {
+    deleteRecursively(directory);
+    super.tearDown();
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testCreateRenamingMapArgsStartsWithoutMaps() {
+    File maps = new File(directory, "maps");
+    List<String> args = NgClosureRunner.createRenamingMapArgs(maps.getPath(), "app");
+    assertTrue(maps.isDirectory());
+    assertEquals(Arrays.asList(
+        "--variable_map_output_file", new File(maps, "app_vars_map.out").getPath(),
+        "--property_map_output_file", new File(maps, "app_props_map.out").getPath()), args);
+  }
+
+  public void testCreateRenamingMapArgsReusesStoredMaps() throws Exception {
+    String variableMap = new File(directory, "app_vars_map.out").getPath();
+    String propertyMap = new File(directory, "app_props_map.out").getPath();
+    // As written by the previous build.
+    Files.write("a:foo\n", new File(variableMap), Charsets.UTF_8);
+    Files.write("b:bar\n", new File(propertyMap), Charsets.UTF_8);
+
+    assertEquals(Arrays.asList(
+        "--variable_map_input_file", variableMap,
+        "--property_map_input_file", propertyMap,
+        "--variable_map_output_file", variableMap,
+        "--property_map_output_file", propertyMap),
+        NgClosureRunner.createRenamingMapArgs(directory.getPath(), "app"));
+    // Other targets keep their own maps.
+    assertEquals(Arrays.asList(
+        "--variable_map_output_file", new File(directory, "admin_vars_map.out").getPath(),
+        "--property_map_output_file", new File(directory, "admin_props_map.out").getPath()),
+        NgClosureRunner.createRenamingMapArgs(directory.getPath(), "admin"));
+  }
+
+  public void testGetInputFilesIncludesPlainArguments() {
+    assertEquals(Arrays.asList("a.js", "b.js", "c.js", "d.js", "e.js"),
+        NgClosureRunner.getInputFiles(Arrays.asList(
+            "--js", "a.js", "--debug", "b.js", "--compilation_level", "SIMPLE_OPTIMIZATIONS",
+            "--js=c.js", "--jscomp_off=checkVars", "--generate_exports", "true", "d.js",
+            "e.js")));
+  }
+
+  public void testCreateModuleChunkArgsSplitsPlainArguments() throws Exception {
+    String app = new File(directory, "app.js").getPath();
+    String admin = new File(directory, "admin.js").getPath();
+    String manifest = new File(directory, "chunks.json").getPath();
+    Files.write("angular.module('app', []);", new File(app), Charsets.UTF_8);
+    Files.write("angular.module('admin', []);", new File(admin), Charsets.UTF_8);
+
+    assertEquals(Arrays.asList("--module_output_path_prefix", "js/",
+        "--js", app, "--module", "base:1", "--js", admin, "--module", "admin:1:base"),
+        NgClosureRunner.createModuleChunkArgs(
+            Arrays.asList(admin, "--module_output_path_prefix", "js/", app),
+            Arrays.asList("app"), manifest));
+    assertEquals("{\"admin\":\"js/admin.js\",\"app\":\"js/base.js\"}",
+        Files.toString(new File(manifest), Charsets.UTF_8));
+  }
+
+  public void testCreateDebugArgsLeavesOutProductionFiles() {
+    assertEquals(Arrays.asList("--js", "app.js", "--compilation_level", "SIMPLE_OPTIMIZATIONS",
+        "--formatting", "PRETTY_PRINT", "--js_output_file", "app.debug.js"),
+        NgClosureRunner.createDebugArgs(Arrays.asList(
+            "--js", "app.js", "--js_output_file", "app.min.js",
+            "--compilation_level", "SIMPLE_OPTIMIZATIONS", "--create_source_map=app.map",
+            "--output_manifest", "manifest.txt", "--output_module_dependencies", "deps.json",
+            "--variable_map_input_file", "vars.in", "--variable_map_output_file=vars.out",
+            "--property_map_input_file", "props.in", "--property_map_output_file", "props.out",
+            "--variable_renaming_report", "vars.txt", "--property_renaming_report=props.txt",
+            "--create_name_map_files", "--formatting", "PRETTY_PRINT"), "app.debug.js"));
+    assertEquals(Arrays.asList("b.js", "--js_output_file", "debug.js"),
+        NgClosureRunner.createDebugArgs(Arrays.asList(
+            "--create_name_map_files", "true", "b.js"), "debug.js"));
+  }
+
+  /**
+   * A runner that exits with a given code, or throws, instead of compiling.
+   */
+  private static class FakeRunner extends NgClosureRunner {
+    private int result;
+
+    FakeRunner(int result) {
+      super(new String[] {}, false, null, null, "/", "minErr.js");
+      this.result = result;
+    }
+
+    @Override
+    protected int doRun() {
+      if (result < 0) {
+        throw new IllegalStateException("compiler crashed");
+      }
+      return result;
+    }
+  }
+
+  public void testRunInParallelReturnsTheFirstFailure() {
+    assertEquals(0, NgClosureRunner.runInParallel(Arrays.<NgClosureRunner>asList(
+        new FakeRunner(0), new FakeRunner(0))));
+    assertEquals(1, NgClosureRunner.runInParallel(Arrays.<NgClosureRunner>asList(
+        new FakeRunner(0), new FakeRunner(1))));
+    assertEquals(-2, NgClosureRunner.runInParallel(Arrays.<NgClosureRunner>asList(
+        new FakeRunner(-1), new FakeRunner(1))));
+  }
+
+  public void testMinerrPassRunsWithoutErrorConversion() throws Exception {
+    File input = new File(directory, "app.js");
+    File output = new File(directory, "app.min.js");
+    File errors = new File(directory, "errors.json");
+    Files.write("var ngMinErr = minErr('ng');\n"
+        +"throw ngMinErr('areq', 'Argument {0} is required', 'x');\n", input, Charsets.UTF_8);
+    NgClosureRunner runner = new NgClosureRunner(new String[] {
+        "--js", input.getPath(), "--js_output_file", output.getPath()},
+        true, errors.getPath(), null, "/", "minErr.js");
+    assertEquals(0, NgClosureRunner.runInParallel(Arrays.asList(runner)));
+    assertEquals("{\"ng\":{\"areq\":\"Argument {0} is required\"}}",
+        Files.toString(errors, Charsets.UTF_8));
+    assertFalse(Files.toString(output, Charsets.UTF_8).contains("Argument {0} is required"));
+  }
+
+  public void testMinerrExtractOnlyWritesTheCatalogAndReportsDiagnostics() throws Exception {
+    File app = new File(directory, "app.js");
+    File bad = new File(directory, "bad.js");
+    File catalog = new File(directory, "errors.json");
+    Files.write("var $compileMinErr = minErr('$compile');\n"
+        +"function f() { throw new Error('plain'); }\n"
+        +"function g(url) {\n"
+        +"  throw $compileMinErr('tpload', 'Failed to load template: {0}', url);\n"
+        +"}\n", app, Charsets.UTF_8);
+    Files.write("var ngMinErr = minErr('ng');\n"
+        +"function h(x) { throw ngMinErr('dynamic', 'Value ' + x); }\n", bad, Charsets.UTF_8);
+    List<String> noConversion = new ArrayList<String>();
+    ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(diagnostics));
+    try {
+      assertEquals(0, NgClosureRunner.extractMinerrCatalog(Arrays.asList(app.getPath()),
+          catalog.getPath(), "ng", noConversion));
+      assertEquals(new JSONObject("{'$compile':{'tpload':'Failed to load template: {0}'}}")
+          .toString(), Files.toString(catalog, Charsets.UTF_8));
+      assertTrue(diagnostics.toString().contains(
+          "WARNING - Throw expression is not a minErr instance."));
+      assertFalse(diagnostics.toString().contains("ERROR"));
+
+      diagnostics.reset();
+      assertEquals(1, NgClosureRunner.extractMinerrCatalog(
+          Arrays.asList(app.getPath(), bad.getPath()), catalog.getPath(), "ng", noConversion));
+      assertTrue(diagnostics.toString().contains("bad.js:2: ERROR - "));
+    } finally {
+      System.setErr(err);
+    }
+  }
+}
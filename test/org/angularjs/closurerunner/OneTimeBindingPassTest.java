@@ -0,0 +1,67 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link OneTimeBindingPass}.
+ */
+public class OneTimeBindingPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+
+  public OneTimeBindingPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new OneTimeBindingPass(compiler, new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testOneTimeBindingPassRewritesConstantInterpolations() {
+    test("$templateCache.put('a.html', '<h1>{{\\'Hi\\' | uppercase}}</h1><p>{{user.name}}</p>');",
+        "$templateCache.put('a.html', '<h1>{{::\\'Hi\\' | uppercase}}</h1><p>{{user.name}}</p>');");
+    assertEquals("bindings: made 1 of 2 bindings one-time.\n", reportOutput.toString());
+  }
+
+  public void testOneTimeBindingPassRewritesWatchingDirectives() {
+    test("x = {template: '<div ng-show=\"true\" ng-click=\"go()\" ng-class=\"{a: 1 &gt; 0}\">'};",
+        "x = {template: '<div ng-show=\"::true\" ng-click=\"go()\" ng-class=\"::{a: 1 &gt; 0}\">'};");
+  }
+
+  public void testOneTimeBindingPassUsesRegisteredFilters() {
+    test("angular.module('m', []).filter('pure', function () { return function (s) { return s; }; })"
+        + ".filter('clock', function () { var f = function () { return Date.now(); };"
+        + " f.$stateful = true; return f; });\n"
+        + "$templateCache.put('a.html', '{{1 | pure}} {{1 | clock}} {{1 | unknown}}');",
+        "angular.module('m', []).filter('pure', function () { return function (s) { return s; }; })"
+        + ".filter('clock', function () { var f = function () { return Date.now(); };"
+        + " f.$stateful = true; return f; });\n"
+        + "$templateCache.put('a.html', '{{::1 | pure}} {{1 | clock}} {{1 | unknown}}');");
+  }
+
+  public void testOneTimeBindingPassLeavesOtherTemplatesAlone() {
+    testSame("$templateCache.put('a.html', '{{::1}} {{a +}} {{ctrl.items.length}}');\n"
+        + "$templateCache.put('b.html', '<pre ng-non-bindable>{{1}}</pre>');\n"
+        + "x = '{{1}}';");
+    assertEquals("bindings: made 0 of 2 bindings one-time.\n", reportOutput.toString());
+  }
+}
@@ -0,0 +1,114 @@
+package org.angularjs.closurerunner;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import com.google.javascript.rhino.Node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link PerformanceLintPass}.
+ */
+public class PerformanceLintPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+  // If set, templates are inlined from here before linting, as the runner does.
+  private File templateRoot;
+
+  public PerformanceLintPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+    templateRoot = null;
+  }
+
+  public void tearDown() throws Exception {
+    if (templateRoot != null) {
+      for (File file : templateRoot.listFiles()) {
+        file.delete();
+      }
+      templateRoot.delete();
+    }
+    super.tearDown();
+  }
+
+  @Override
+  public CompilerPass getProcessor(final Compiler compiler) {
+    final CompilerPass lint = new PerformanceLintPass(compiler, new PrintStream(reportOutput));
+    if (templateRoot == null) {
+      return lint;
+    }
+    final CompilerPass templateCache = new TemplateCachePass(compiler, templateRoot, "ng", null);
+    return new CompilerPass() {
+      @Override
+      public void process(Node externs, Node root) {
+        templateCache.process(externs, root);
+        lint.process(externs, root);
+      }
+    };
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testPerformanceLintPassReportsDeepWatches() {
+    testSame("$scope.$watch('items', update, true);",
+        PerformanceLintPass.DEEP_WATCH_WARNING);
+    assertEquals("lint: found 1 performance issues (JSC_NG_DEEP_WATCH_WARNING: 1).\n",
+        reportOutput.toString());
+  }
+
+  public void testPerformanceLintPassReportsDigestsInLoops() {
+    testSame("for (var i = 0; i < n; i++) { $scope.$apply(); }",
+        PerformanceLintPass.DIGEST_IN_LOOP_WARNING);
+    testSame("angular.forEach(items, function (item) { item.scope.$digest(); });",
+        PerformanceLintPass.DIGEST_IN_LOOP_WARNING);
+  }
+
+  public void testPerformanceLintPassReportsNestedWatches() {
+    testSame("items.forEach(function (item) { $scope.$watch(item, update); });",
+        PerformanceLintPass.WATCH_IN_LOOP_WARNING);
+    testSame("$scope.$watch('a', function (a) { $scope.$watchCollection(a, update); });",
+        PerformanceLintPass.WATCH_IN_LISTENER_WARNING);
+  }
+
+  public void testPerformanceLintPassReportsRepeatWithoutTrackBy() {
+    testSame("$templateCache.put('list.html', '<li ng-repeat=\"item in items\">{{item}}</li>');",
+        PerformanceLintPass.REPEAT_WITHOUT_TRACK_BY_WARNING);
+  }
+
+  public void testPerformanceLintPassReportsRepeatWithoutTrackByInInlinedTemplates()
+      throws Exception {
+    templateRoot = Files.createTempDir();
+    Files.write("<li ng-repeat=\"item in items\">{{item}}</li>",
+        new File(templateRoot, "list.html"), Charsets.UTF_8);
+    test("app.directive('list', function () { return {templateUrl: 'list.html'}; });",
+        "app.directive('list', function () { return {templateUrl: 'list.html'}; });\n"
+        +"angular.module('ng').run(['$templateCache', function ($templateCache) {\n"
+        +"  $templateCache.put('list.html', '<li ng-repeat=\"item in items\">{{item}}</li>'); }]);",
+        null, PerformanceLintPass.REPEAT_WITHOUT_TRACK_BY_WARNING);
+  }
+
+  public void testPerformanceLintPassAcceptsCheapPatterns() {
+    testSame("$scope.$watch('items', update);\n"
+        +"while (queue.length) { queue.shift()(); }\n"
+        +"$scope.$apply(function () { for (var i = 0; i < n; i++) { step(i); } });\n"
+        +"x = {template: '<li data-ng-repeat=\"i in items track by i.id\"></li>'};");
+    assertEquals("lint: found 0 performance issues.\n", reportOutput.toString());
+  }
+}
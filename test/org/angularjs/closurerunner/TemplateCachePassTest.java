@@ -0,0 +1,124 @@
+package org.angularjs.closurerunner;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Tests {@link TemplateCachePass}.
+ */
+public class TemplateCachePassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream manifestOutput;
+  private File templateRoot;
+
+  public TemplateCachePassTest() {
+    super();
+    enableLineNumberCheck(false);
+    manifestOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    manifestOutput.reset();
+    templateRoot = Files.createTempDir();
+  }
+
+  public void tearDown() throws Exception {
+    for (File file : templateRoot.listFiles()) {
+      file.delete();
+    }
+    templateRoot.delete();
+    super.tearDown();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new TemplateCachePass(compiler, templateRoot, "ng", new PrintStream(manifestOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  private void writeTemplate(String name, String html) throws Exception {
+    Files.write(html, new File(templateRoot, name), Charsets.UTF_8);
+  }
+
+  public void testTemplateCachePassInlinesDirectiveTemplates() throws Exception {
+    writeTemplate("foo.html", "<div>\n  <span>{{foo}}</span>\n</div>\n");
+    test("app.directive('foo', function () {\n"
+        +"  return {templateUrl: 'foo.html'}; });",
+        "app.directive('foo', function () {\n"
+        +"  return {templateUrl: 'foo.html'}; });\n"
+        +"angular.module('ng').run(['$templateCache', function ($templateCache) {\n"
+        +"  $templateCache.put('foo.html', '<div> <span>{{foo}}</span> </div>'); }]);");
+    JSONObject manifest = new JSONObject(manifestOutput.toString()).getJSONObject("foo.html");
+    assertEquals(36, manifest.getInt("originalSize"));
+    assertEquals(33, manifest.getInt("inlinedSize"));
+  }
+
+  public void testTemplateCachePassWritesAReproducibleManifest() throws Exception {
+    writeTemplate("z.html", "<p>z</p>");
+    writeTemplate("a.html", "<p>a</p>");
+    writeTemplate("m.html", "<p>m</p>");
+    String js = "$routeProvider.when('/z', {templateUrl: 'z.html'})\n"
+        +"  .when('/a', {templateUrl: 'a.html'})\n"
+        +"  .when('/m', {templateUrl: 'm.html'});";
+    test(js, js + "\n"
+        +"angular.module('ng').run(['$templateCache', function ($templateCache) {\n"
+        +"  $templateCache.put('z.html', '<p>z</p>');\n"
+        +"  $templateCache.put('a.html', '<p>a</p>');\n"
+        +"  $templateCache.put('m.html', '<p>m</p>'); }]);");
+    String manifest = manifestOutput.toString();
+    assertTrue(manifest.indexOf("\"a.html\"") < manifest.indexOf("\"m.html\""));
+    assertTrue(manifest.indexOf("\"m.html\"") < manifest.indexOf("\"z.html\""));
+    assertTrue(manifest.indexOf("\"file\"") < manifest.indexOf("\"originalSize\""));
+    assertTrue(manifest.indexOf("\"originalSize\"") < manifest.indexOf("\"inlinedSize\""));
+  }
+
+  public void testTemplateCachePassInlinesEachTemplateOnce() throws Exception {
+    writeTemplate("a.html", "<p>a</p>");
+    writeTemplate("b.html", "<p>b</p>");
+    test("$routeProvider.when('/a', {templateUrl: '/a.html'})\n"
+        +"  .when('/b', {templateUrl: 'b.html'})\n"
+        +"  .when('/c', {templateUrl: '/a.html'});",
+        "$routeProvider.when('/a', {templateUrl: '/a.html'})\n"
+        +"  .when('/b', {templateUrl: 'b.html'})\n"
+        +"  .when('/c', {templateUrl: '/a.html'});\n"
+        +"angular.module('ng').run(['$templateCache', function ($templateCache) {\n"
+        +"  $templateCache.put('/a.html', '<p>a</p>');\n"
+        +"  $templateCache.put('b.html', '<p>b</p>'); }]);");
+  }
+
+  public void testTemplateCachePassWarnsAboutMissingTemplates() {
+    testSame("x = {templateUrl: 'missing.html'};",
+        TemplateCachePass.TEMPLATE_NOT_FOUND_WARNING);
+  }
+
+  public void testTemplateCachePassIgnoresDynamicUrls() {
+    testSame("x = {templateUrl: base + 'foo.html'};");
+  }
+
+  public void testMinifyHtmlRemovesCommentsButKeepsCommentDirectives() {
+    TemplateCachePass pass = new TemplateCachePass(null, templateRoot, "ng", null);
+    assertEquals("<b>a</b> <!-- directive: foo bar --> <i>b</i>",
+        pass.minifyHtml("<b>a</b> <!-- note -->\n<!-- directive: foo bar -->\n\n<i>b</i>"));
+  }
+
+  public void testMinifyHtmlKeepsWhitespaceInPreformattedTemplates() {
+    TemplateCachePass pass = new TemplateCachePass(null, templateRoot, "ng", null);
+    assertEquals("<pre>a\n  b</pre>", pass.minifyHtml("<pre>a\n  b</pre>\n"));
+  }
+}
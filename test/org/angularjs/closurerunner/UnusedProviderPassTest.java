@@ -0,0 +1,159 @@
+package org.angularjs.closurerunner;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.jscomp.CompilerTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link UnusedProviderPass}.
+ */
+public class UnusedProviderPassTest extends CompilerTestCase {
+
+  private ByteArrayOutputStream reportOutput;
+  private List<String> bootstrapModules;
+  private List<String> keep;
+
+  public UnusedProviderPassTest() {
+    super();
+    enableLineNumberCheck(false);
+    reportOutput = new ByteArrayOutputStream();
+  }
+
+  public void setUp() throws Exception {
+    super.setUp();
+    reportOutput.reset();
+    bootstrapModules = new ArrayList<String>();
+    keep = new ArrayList<String>();
+  }
+
+  @Override
+  public CompilerPass getProcessor(Compiler compiler) {
+    return new UnusedProviderPass(compiler, bootstrapModules, keep,
+        new PrintStream(reportOutput));
+  }
+
+  @Override
+  public int getNumRepetitions() {
+    // This pass only runs once.
+    return 1;
+  }
+
+  public void testUnusedProviderPassRemovesUnreachableServices() {
+    test("var app = angular.module('app', []);\n"
+        +"app.factory('users', function (api) {}).factory('api', function () {})\n"
+        +"  .factory('unused', function (api) {});\n"
+        +"app.controller('Main', ['users', function (users) {}]);",
+        "var app = angular.module('app', []);\n"
+        +"app.factory('users', function (api) {}).factory('api', function () {});\n"
+        +"app.controller('Main', ['users', function (users) {}]);");
+    assertTrue(reportOutput.toString().startsWith(
+        "providers: removed factory 'unused' from module 'app'.\n"
+        +"providers: removed 1 unused registrations, saving about "));
+  }
+
+  public void testUnusedProviderPassKeepsDirectivesAndFiltersUsedInTemplates() {
+    test("angular.module('app', [])\n"
+        +"  .directive('myWidget', function () {\n"
+        +"    return {template: '<span my-label>{{x | shout}}</span>'}; })\n"
+        +"  .directive('myLabel', function () {})\n"
+        +"  .directive('myOther', function () {})\n"
+        +"  .filter('shout', function () {})\n"
+        +"  .filter('whisper', function () {});\n"
+        +"$templateCache.put('main.html', '<my-widget></my-widget>');",
+        "angular.module('app', [])\n"
+        +"  .directive('myWidget', function () {\n"
+        +"    return {template: '<span my-label>{{x | shout}}</span>'}; })\n"
+        +"  .directive('myLabel', function () {})\n"
+        +"  .filter('shout', function () {});\n"
+        +"$templateCache.put('main.html', '<my-widget></my-widget>');");
+    assertTrue(reportOutput.toString().endsWith(
+        "providers: the host page isn't scanned, keep any of myOther, whisper it uses "
+        +"with --ng_keep_provider.\n"));
+  }
+
+  public void testUnusedProviderPassKeepsDirectivesWhenTemplatesAreExternal() {
+    testSame("angular.module('app', [])\n"
+        +"  .directive('myWidget', function () { return {templateUrl: 'w.html'}; })\n"
+        +"  .directive('myLabel', function () {});");
+  }
+
+  public void testUnusedProviderPassRemovesModulesNotBootstrapped() {
+    bootstrapModules.add("app");
+    test("angular.module('app', ['lib']);\n"
+        +"angular.module('lib', []).run(function () {});\n"
+        +"angular.module('extra', []).run(function () {});",
+        "angular.module('app', ['lib']);\n"
+        +"angular.module('lib', []).run(function () {});\n"
+        +"angular.module('extra', []);");
+  }
+
+  public void testUnusedProviderPassKeepsNamedRegistrations() {
+    keep.addAll(Arrays.asList("api", "myDir"));
+    testSame("angular.module('app', [])\n"
+        +"  .service('api', function () {})\n"
+        +"  .directive('myDir', function () {})\n"
+        +"  .value('url', '/');\n"
+        +"$injector.get('url');");
+  }
+
+  public void testUnusedProviderPassKeepsDependenciesOfProviderGetters() {
+    test("angular.module('app', [])\n"
+        +"  .provider('p', function () { this.$get = function (b) {}; })\n"
+        +"  .provider('q', {$get: function (c) {}})\n"
+        +"  .factory('b', function () {})\n"
+        +"  .factory('c', function () {})\n"
+        +"  .factory('unused', function () {})\n"
+        +"  .run(function (p, q) {});",
+        "angular.module('app', [])\n"
+        +"  .provider('p', function () { this.$get = function (b) {}; })\n"
+        +"  .provider('q', {$get: function (c) {}})\n"
+        +"  .factory('b', function () {})\n"
+        +"  .factory('c', function () {})\n"
+        +"  .run(function (p, q) {});");
+  }
+
+  public void testUnusedProviderPassKeepsDependenciesOfControllersAndResolves() {
+    test("angular.module('app', [])\n"
+        +"  .directive('d', function () { return {controller: function (c) {}}; })\n"
+        +"  .config(function ($routeProvider) {\n"
+        +"    $routeProvider.when('/', {controller: 'Main', resolve: {u: function (users) {}}});\n"
+        +"  })\n"
+        +"  .factory('c', function () {})\n"
+        +"  .factory('users', function () {})\n"
+        +"  .factory('unused', function () {});\n"
+        +"$templateCache.put('main.html', '<div d></div>');",
+        "angular.module('app', [])\n"
+        +"  .directive('d', function () { return {controller: function (c) {}}; })\n"
+        +"  .config(function ($routeProvider) {\n"
+        +"    $routeProvider.when('/', {controller: 'Main', resolve: {u: function (users) {}}});\n"
+        +"  })\n"
+        +"  .factory('c', function () {})\n"
+        +"  .factory('users', function () {});\n"
+        +"$templateCache.put('main.html', '<div d></div>');");
+  }
+
+  public void testUnusedProviderPassRemovesNothingWithUnknownInjectionSites() {
+    testSame("angular.module('app', [])\n"
+        +"  .directive('d', function () { return {controller: imported}; })\n"
+        +"  .value('unused', 1);\n"
+        +"$templateCache.put('main.html', '<div d></div>');");
+    testSame("angular.module('app', [])\n"
+        +"  .run(function ($injector) { $injector.get(name); })\n"
+        +"  .value('unused', 1);");
+  }
+
+  public void testUnusedProviderPassRemovesNothingWithUnknownDependencies() {
+    testSame("angular.module('app', [])\n"
+        +"  .controller('Main', imported)\n"
+        +"  .value('unused', 1);");
+    assertEquals("providers: can't determine all dependencies, no registrations removed.\n",
+        reportOutput.toString());
+  }
+}